@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc;
+
+/**
+ * Times short operations by running them in batches, for the benchmarks in the subpackages of
+ * com.yahoo.sketches.misc.
+ *
+ * <p>nsPerOp() doubles the batch size until a batch takes at least MIN_BATCH_NS, which also warms
+ * up the code, then returns the mean time per operation over NUM_TRIALS batches of that size.
+ *
+ * <p>The results of the operations are summed into a volatile sink, so the JIT cannot remove the
+ * measured calls. A benchmark can pass other results it wants kept live to consume().
+ */
+public final class BatchTimer {
+  private static final long MIN_BATCH_NS = 20_000_000L; // 20 ms
+  private static final int NUM_TRIALS = 5;
+  private static final int MAX_REPS = 1 << 24;
+
+  private static volatile double sink = 0;
+
+  private BatchTimer() {}
+
+  /**
+   * An operation to be timed. The result is accumulated so that it cannot be optimized away.
+   */
+  @FunctionalInterface
+  public interface Op {
+    /**
+     * @return any value that depends on the work done
+     */
+    double run();
+  }
+
+  /**
+   * @param op the operation to time
+   * @return the mean time per operation in nanoseconds
+   */
+  public static double nsPerOp(final Op op) {
+    int reps = 1;
+    while ((timeBatch(op, reps) < MIN_BATCH_NS) && (reps < MAX_REPS)) {
+      reps <<= 1;
+    }
+    long total_ns = 0;
+    for (int t = 0; t < NUM_TRIALS; ++t) {
+      total_ns += timeBatch(op, reps);
+    }
+    return total_ns / ((double) NUM_TRIALS * reps);
+  }
+
+  /**
+   * Keeps a result live that was computed outside nsPerOp().
+   * @param value the result
+   */
+  public static void consume(final double value) {
+    sink += value;
+  }
+
+  private static long timeBatch(final Op op, final int reps) {
+    double acc = 0;
+    final long start_ns = System.nanoTime();
+    for (int i = 0; i < reps; ++i) {
+      acc += op.run();
+    }
+    final long elapsed_ns = System.nanoTime() - start_ns;
+    sink += acc;
+    return elapsed_ns;
+  }
+
+}
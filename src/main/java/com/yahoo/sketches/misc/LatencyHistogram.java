@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-bucketed histogram of non-negative long values, intended for recording
+ * latencies in nanoseconds.
+ *
+ * <p>Each power of two is split into 2^SUB_BUCKET_BITS linear sub-buckets, so a reported
+ * quantile is never more than 1/2^SUB_BUCKET_BITS (about 3%) above the true recorded value.
+ * Values below 2^(SUB_BUCKET_BITS + 1) are recorded exactly. Recording is a few shifts and an
+ * array increment, and never allocates.
+ *
+ * <p>This class is not thread-safe. Use one instance per thread and merge them.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  /** The quantiles reported by toQuantilesString() */
+  public static final double[] REPORT_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final long[] counts_ = new long[NUM_BUCKETS];
+  private long totalCount_ = 0;
+  private long max_ = 0;
+  private double sum_ = 0;
+
+  /**
+   * Records one value.
+   * @param value the value to record, which must be non-negative
+   */
+  public void record(final long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("value must be non-negative: " + value);
+    }
+    counts_[bucketIndex(value)]++;
+    totalCount_++;
+    sum_ += value;
+    if (value > max_) { max_ = value; }
+  }
+
+  /**
+   * Adds all values recorded in the other histogram into this one.
+   * @param other the histogram to merge into this one
+   */
+  public void merge(final LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts_[i] += other.counts_[i];
+    }
+    totalCount_ += other.totalCount_;
+    sum_ += other.sum_;
+    if (other.max_ > max_) { max_ = other.max_; }
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    Arrays.fill(counts_, 0L);
+    totalCount_ = 0;
+    max_ = 0;
+    sum_ = 0;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long getCount() {
+    return totalCount_;
+  }
+
+  /**
+   * @return the exact maximum recorded value, or zero if empty
+   */
+  public long getMax() {
+    return max_;
+  }
+
+  /**
+   * @return the exact mean of the recorded values, or NaN if empty
+   */
+  public double getMean() {
+    return (totalCount_ == 0) ? Double.NaN : sum_ / totalCount_;
+  }
+
+  /**
+   * Returns the upper bound of the bucket that contains the value at the given quantile, capped
+   * at the exact maximum.
+   * @param quantile a fraction in the range [0, 1]
+   * @return the value at the given quantile, or zero if empty
+   */
+  public long getValueAtQuantile(final double quantile) {
+    if ((quantile < 0.0) || (quantile > 1.0)) {
+      throw new IllegalArgumentException("quantile must be in [0, 1]: " + quantile);
+    }
+    if (totalCount_ == 0) { return 0; }
+    final long rank = Math.max(1, (long) Math.ceil(quantile * totalCount_));
+    long cumCount = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      cumCount += counts_[i];
+      if (cumCount >= rank) {
+        return Math.min(bucketUpperBound(i), max_);
+      }
+    }
+    return max_;
+  }
+
+  /**
+   * @param width the column width of each value
+   * @return a header row matching toQuantilesString(width)
+   */
+  public static String getQuantilesHeader(final int width) {
+    final String fmt = "%" + width + "s";
+    final StringBuilder sb = new StringBuilder();
+    for (double q : REPORT_QUANTILES) {
+      sb.append(String.format(fmt, "p" + formatQuantile(q)));
+    }
+    sb.append(String.format(fmt, "max"));
+    return sb.toString();
+  }
+
+  /**
+   * @param width the column width of each value
+   * @return the values at REPORT_QUANTILES followed by the maximum, as a single row
+   */
+  public String toQuantilesString(final int width) {
+    final String fmt = "%," + width + "d";
+    final StringBuilder sb = new StringBuilder();
+    for (double q : REPORT_QUANTILES) {
+      sb.append(String.format(fmt, getValueAtQuantile(q)));
+    }
+    sb.append(String.format(fmt, max_));
+    return sb.toString();
+  }
+
+  private static String formatQuantile(final double q) {
+    final String s = Double.toString(q * 100.0);
+    return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s;
+  }
+
+  static int bucketIndex(final long value) {
+    final int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  static long bucketUpperBound(final int index) {
+    final int shift = Math.max(0, (index >>> SUB_BUCKET_BITS) - 1);
+    final long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+}
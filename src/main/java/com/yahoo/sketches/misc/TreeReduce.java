@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Parallel pairwise (tree) reduction of the indices [0, size), for the union benchmarks in the
+ * subpackages of com.yahoo.sketches.misc.
+ *
+ * <p>The range is split in halves recursively down to runs of at most <i>grain</i> indices.
+ * Each run is folded sequentially by the leaf function, and the results of the two halves of
+ * each split are combined by the combine function, left result first. With grain = 1 every
+ * combine above the leaves is of two partial results.
+ *
+ * <p>Run it with ForkJoinPool.invoke() on a given pool, or with invoke() in the current
+ * fork-join context.
+ *
+ * @param <S> the type of the partial results, typically a union
+ */
+public final class TreeReduce<S> extends RecursiveTask<S> {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Folds a run of indices sequentially into a partial result.
+   *
+   * @param <S> the type of the partial results
+   */
+  @FunctionalInterface
+  public interface Leaf<S> {
+    /**
+     * @param lo the first index of the run
+     * @param hi one past the last index of the run
+     * @return the partial result of the run
+     */
+    S fold(int lo, int hi);
+  }
+
+  private final int lo_;
+  private final int hi_;
+  private final int grain_;
+  private final Leaf<S> leaf_;
+  private final BinaryOperator<S> combine_;
+
+  /**
+   * @param size    the number of indices to reduce
+   * @param grain   the largest number of indices folded sequentially by one task
+   * @param leaf    folds a run of indices into a partial result
+   * @param combine combines the partial results of two adjacent runs, the left one first. It may
+   *                return its left argument updated in place.
+   */
+  public TreeReduce(final int size, final int grain, final Leaf<S> leaf,
+                    final BinaryOperator<S> combine) {
+    this(0, size, grain, leaf, combine);
+    if (grain < 1) {
+      throw new IllegalArgumentException("grain must be at least 1: " + grain);
+    }
+  }
+
+  private TreeReduce(final int lo, final int hi, final int grain, final Leaf<S> leaf,
+                     final BinaryOperator<S> combine) {
+    lo_ = lo;
+    hi_ = hi;
+    grain_ = grain;
+    leaf_ = leaf;
+    combine_ = combine;
+  }
+
+  @Override
+  protected S compute() {
+    if ((hi_ - lo_) <= grain_) {
+      return leaf_.fold(lo_, hi_);
+    }
+
+    final int mid = (lo_ + hi_) >>> 1;
+    final TreeReduce<S> left = new TreeReduce<>(lo_, mid, grain_, leaf_, combine_);
+    left.fork();
+    final S right = new TreeReduce<>(mid, hi_, grain_, leaf_, combine_).compute();
+    return combine_.apply(left.join(), right);
+  }
+
+}
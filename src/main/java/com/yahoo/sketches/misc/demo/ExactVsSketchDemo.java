@@ -5,6 +5,8 @@
 
 package com.yahoo.sketches.misc.demo;
 
+import java.util.Arrays;
+
 /**
  * This demo computes a stream of values and feeds them first to
  * an exact sort-based method of computing the number of unique values
@@ -32,8 +34,13 @@ public class ExactVsSketchDemo {
    * <li>arg[1] (Optional) The approximate fraction of the stream length that will be unique,
    * the remainder will be duplicates. The default is 0.5.</li>
    * </ul>
+   * If arg[0] is "sweep", runs SketchConfigSweep with the remaining arguments instead.
    */
   public static void main(final String[] args) {
+    if ((args.length > 0) && args[0].equals("sweep")) {
+      SketchConfigSweep.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     final int argsLen = args.length;
     long streamLen = (long)1E8;   //The default stream length
     double uFrac = .50;          //The default fraction that are unique
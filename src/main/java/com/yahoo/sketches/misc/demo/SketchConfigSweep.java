@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.demo;
+
+import static com.yahoo.sketches.hash.MurmurHash3.hash;
+import static com.yahoo.sketches.misc.demo.Util.println;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import com.yahoo.sketches.Family;
+import com.yahoo.sketches.ResizeFactor;
+import com.yahoo.sketches.hll.HllSketch;
+import com.yahoo.sketches.hll.TgtHllType;
+import com.yahoo.sketches.theta.Sketch;
+import com.yahoo.sketches.theta.Sketches;
+import com.yahoo.sketches.theta.UpdateSketch;
+
+/**
+ * The sweep mode of the distinct count demo: feeds one stream, built like the stream of
+ * DemoImpl, to every configuration of Theta and HLL sketch in a grid and prints, for each, the
+ * update cost, the bytes the sketch grew to, and its actual error next to its 95% bound.
+ *
+ * <p>The grid crosses the QUICKSELECT and ALPHA Theta families with ResizeFactor X1, X2, X4 and
+ * X8, and the HLL_4, HLL_6 and HLL_8 HLL types, each over a range of lgK, which for HLL stops at
+ * 21, the largest lgK HllSketch accepts. Both kinds of sketch only ever grow, so their final
+ * updatable size is their peak size.
+ *
+ * <p>Configurations run in parallel. So that the big ones do not exhaust the heap together, each
+ * one first reserves its largest possible size from a budget of half the maximum heap, so for
+ * lgK up to 26 run with e.g. -Xmx4g. The ns/value of a configuration is measured while others
+ * run on the other threads, so it is best compared within one sweep.
+ *
+ * <p>Given an error target, the sweep ends with the smallest and the fastest configurations
+ * whose 95% bound meets it.
+ */
+public final class SketchConfigSweep {
+  private static final ResizeFactor[] RESIZE_FACTORS =
+    {ResizeFactor.X1, ResizeFactor.X2, ResizeFactor.X4, ResizeFactor.X8};
+  private static final Family[] THETA_FAMILIES = {Family.QUICKSELECT, Family.ALPHA};
+  private static final int HLL_MAX_LG_K = 21; // the largest lgK HllSketch accepts
+  private static final int MB = 1 << 20;
+
+  private final long[] values_;
+  private final long uniques_;
+
+  /**
+   * Builds the stream: each value is unique with probability uniquesFraction and otherwise
+   * repeats an earlier unique value, and is hashed as in DemoImpl. The stream is drawn from a
+   * fixed seed, so it is the same on every run.
+   * @param streamLen the number of values
+   * @param uniquesFraction the fraction of values that are unique
+   */
+  SketchConfigSweep(final int streamLen, final double uniquesFraction) {
+    final Random rand = new Random(9001);
+    final long[] vArr = new long[1];
+    values_ = new long[streamLen];
+    long u = 1;
+    for (int i = 0; i < streamLen; i++) {
+      vArr[0] = ((rand.nextDouble() < uniquesFraction) || (u <= 1))
+          ? u++
+          : (long) (rand.nextDouble() * (u - 1)) + 1;
+      values_[i] = hash(vArr, 0L)[0];
+    }
+    uniques_ = u - 1;
+  }
+
+  /**
+   * One sketch configuration of the sweep.
+   */
+  static final class Config {
+    final Family family; // null for HLL
+    final ResizeFactor rf;
+    final TgtHllType hllType;
+    final int lgK;
+
+    Config(final Family family, final ResizeFactor rf, final TgtHllType hllType, final int lgK) {
+      this.family = family;
+      this.rf = rf;
+      this.hllType = hllType;
+      this.lgK = lgK;
+    }
+
+    int getMaxBytes() {
+      return (family != null) ? Sketch.getMaxUpdateSketchBytes(1 << lgK)
+          : HllSketch.getMaxUpdatableSerializationBytes(lgK, hllType);
+    }
+
+    String getName() {
+      return (family != null) ? family.toString() : "HLL";
+    }
+
+    String getVariant() {
+      return (family != null) ? rf.toString() : hllType.toString();
+    }
+  }
+
+  /**
+   * The measurements of one configuration.
+   */
+  static final class Result {
+    final Config config;
+    final double nsPerValue;
+    final int peakBytes;
+    final double estimate;
+    final double relErr;
+    final double bound95;
+
+    Result(final Config config, final double nsPerValue, final int peakBytes,
+           final double estimate, final double relErr, final double bound95) {
+      this.config = config;
+      this.nsPerValue = nsPerValue;
+      this.peakBytes = peakBytes;
+      this.estimate = estimate;
+      this.relErr = relErr;
+      this.bound95 = bound95;
+    }
+  }
+
+  /**
+   * @param lgKlo the smallest lgK
+   * @param lgKhi the largest lgK
+   * @return every configuration of the grid
+   */
+  static List<Config> getConfigs(final int lgKlo, final int lgKhi) {
+    final List<Config> configs = new ArrayList<>();
+    for (Family family : THETA_FAMILIES) {
+      for (ResizeFactor rf : RESIZE_FACTORS) {
+        for (int lgK = lgKlo; lgK <= lgKhi; lgK++) {
+          configs.add(new Config(family, rf, null, lgK));
+        }
+      }
+    }
+    for (TgtHllType type : TgtHllType.values()) {
+      for (int lgK = lgKlo; lgK <= Math.min(lgKhi, HLL_MAX_LG_K); lgK++) {
+        configs.add(new Config(null, null, type, lgK));
+      }
+    }
+    return configs;
+  }
+
+  /**
+   * Runs the configurations on a pool of the given number of threads.
+   * @param configs the configurations
+   * @param threads the number of threads
+   * @return the results, in the order of configs
+   */
+  List<Result> runAll(final List<Config> configs, final int threads) {
+    final int budgetMB = (int) (Runtime.getRuntime().maxMemory() / 2 / MB);
+    final Semaphore memoryMB = new Semaphore(budgetMB);
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      return pool.submit(() -> configs.parallelStream().map(c -> {
+        final int permits = Math.min(budgetMB, (c.getMaxBytes() / MB) + 1);
+        memoryMB.acquireUninterruptibly(permits);
+        try {
+          return run(c);
+        } finally {
+          memoryMB.release(permits);
+        }
+      }).collect(Collectors.toList())).get();
+    } catch (final InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Sweep failed", e);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private Result run(final Config c) {
+    final int k = 1 << c.lgK;
+    final long start_ns;
+    final long elapsed_ns;
+    final double est;
+    final double ub;
+    final double lb;
+    final int peakBytes;
+    if (c.family != null) {
+      final UpdateSketch sketch = Sketches.updateSketchBuilder().setFamily(c.family)
+          .setResizeFactor(c.rf).setNominalEntries(k).build();
+      start_ns = System.nanoTime();
+      for (long v : values_) { sketch.update(v); }
+      elapsed_ns = System.nanoTime() - start_ns;
+      est = sketch.getEstimate();
+      ub = sketch.getUpperBound(2);
+      lb = sketch.getLowerBound(2);
+      peakBytes = sketch.getCurrentBytes(false);
+    } else {
+      final HllSketch sketch = new HllSketch(c.lgK, c.hllType);
+      start_ns = System.nanoTime();
+      for (long v : values_) { sketch.update(v); }
+      elapsed_ns = System.nanoTime() - start_ns;
+      est = sketch.getEstimate();
+      ub = sketch.getUpperBound(2);
+      lb = sketch.getLowerBound(2);
+      peakBytes = sketch.getUpdatableSerializationBytes();
+    }
+    final double bound95 = (est > 0) ? Math.max(ub - est, est - lb) / est : 0;
+    return new Result(c, (double) elapsed_ns / values_.length, peakBytes, est,
+        (est / uniques_) - 1.0, bound95);
+  }
+
+  static String getHeaderString() {
+    return String.format("%-12s%8s%6s%12s%16s%16s%12s%12s", "Sketch", "Variant", "LgK",
+        "ns/value", "peak bytes", "estimate", "actual err", "95% bound");
+  }
+
+  static String toRowString(final Result r) {
+    return String.format("%-12s%8s%6d%12.1f%,16d%,16.0f%11.3f%%%11.3f%%", r.config.getName(),
+        r.config.getVariant(), r.config.lgK, r.nsPerValue, r.peakBytes, r.estimate,
+        100 * r.relErr, 100 * r.bound95);
+  }
+
+  /**
+   * Runs the sweep.
+   *
+   * @param args
+   * <ul><li>arg[0]: (Optional) The stream length. The default is 1E7.</li>
+   * <li>arg[1]: (Optional) The fraction of the stream that is unique. The default is 0.5.</li>
+   * <li>arg[2], arg[3]: (Optional) The range of lgK. The default is 10 to 26.</li>
+   * <li>arg[4]: (Optional) The target for the 95% error bound, as a fraction. The default is
+   * 0.01.</li>
+   * <li>arg[5]: (Optional) The number of threads. The default is the number of processors.</li>
+   * </ul>
+   */
+  public static void main(final String[] args) {
+    final int streamLen = (args.length > 0) ? (int) Double.parseDouble(args[0]) : (int) 1E7;
+    final double uFrac = (args.length > 1) ? Double.parseDouble(args[1]) : 0.5;
+    final int lgKlo = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+    final int lgKhi = (args.length > 3) ? Integer.parseInt(args[3]) : 26;
+    final double target = (args.length > 4) ? Double.parseDouble(args[4]) : 0.01;
+    final int threads = (args.length > 5) ? Integer.parseInt(args[5])
+        : Runtime.getRuntime().availableProcessors();
+
+    final SketchConfigSweep sweep = new SketchConfigSweep(streamLen, uFrac);
+    println(String.format("# SWEEP: %,d values, %,d uniques, %d threads", streamLen,
+        sweep.uniques_, threads));
+    println(getHeaderString());
+    final List<Result> results = sweep.runAll(getConfigs(lgKlo, lgKhi), threads);
+    for (Result r : results) { println(toRowString(r)); }
+
+    final List<Result> meeting = results.stream().filter(r -> r.bound95 <= target)
+        .collect(Collectors.toList());
+    println("");
+    if (meeting.isEmpty()) {
+      println(String.format("No configuration has a 95%% bound within %.3f%%", 100 * target));
+      return;
+    }
+    println(String.format("## CHEAPEST CONFIGURATIONS WITH A 95%% BOUND WITHIN %.3f%%",
+        100 * target));
+    println(getHeaderString());
+    println(toRowString(meeting.stream().min(Comparator.<Result>comparingInt(r -> r.peakBytes)
+        .thenComparingDouble(r -> r.nsPerValue)).get()) + "  smallest");
+    println(toRowString(meeting.stream().min(Comparator.<Result>comparingDouble(
+        r -> r.nsPerValue)).get()) + "  fastest");
+  }
+
+}
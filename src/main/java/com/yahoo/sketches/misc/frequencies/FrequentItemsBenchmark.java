@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.frequencies;
+
+import static com.yahoo.sketches.misc.BatchTimer.nsPerOp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import com.yahoo.sketches.ArrayOfStringsSerDe;
+import com.yahoo.sketches.frequencies.ErrorType;
+import com.yahoo.sketches.frequencies.ItemsSketch;
+import com.yahoo.sketches.frequencies.LongsSketch;
+
+/**
+ * Measures the throughput and accuracy of the frequent items sketches LongsSketch and
+ * ItemsSketch&lt;String&gt; over a range of maxMapSize, on a Zipf distributed stream.
+ *
+ * <p>The stream has n values drawn from numKeys keys, where the key of rank r has probability
+ * proportional to 1 / (r + 1)^s. A key of rank r is the long r * 0x9E3779B97F4A7C15L, so keys are
+ * spread over the long range, or for ItemsSketch a String made of it once in advance. The stream
+ * is generated and counted exactly in parallel, in chunks, each with its own SplittableRandom and
+ * array of counts, which are then summed. The exact count gives the true frequent items, those
+ * with a count above phi * n.
+ *
+ * <p>For every maxMapSize and sketch type the table gives:
+ * <ul>
+ * <li>ns/update: the mean time per update of feeding the whole stream to a fresh sketch</li>
+ * <li>ns/merge: the mean time per merge of merging NUM_PARTITIONS sketches, one per contiguous
+ * part of the stream, into a fresh sketch</li>
+ * <li>bytes: the serialized size of the sketch of the whole stream</li>
+ * <li>maxError: the sketch's bound on the error of any estimate</li>
+ * <li>for each ErrorType, the items getFrequentItems(phi * n, errorType) reports, and how many of
+ * them are false positives, as a fraction of the reported items, and how many true frequent items
+ * are missing from them, as a fraction of the true frequent items</li>
+ * </ul>
+ * getFrequentItems() raises a threshold below maxError to maxError, so the true frequent items of
+ * a row are those above the larger of the two, given in the threshold column. A maxMapSize whose
+ * maxError exceeds phi * n cannot find all the items above phi * n, whatever the ErrorType.
+ * NO_FALSE_POSITIVES has no false positives and NO_FALSE_NEGATIVES no false negatives, so each
+ * row shows how many errors of the other kind its guarantee costs at that maxMapSize.
+ *
+ * <p>Usage: FrequentItemsBenchmark [numKeys] [lgN] [s] [phi] [lgMaxMapSize lo] [lgMaxMapSize hi],
+ * by default 500,000 keys, n = 2^23, s = 1.1, phi = 1E-4 and maxMapSize = 2^10 to 2^16.
+ */
+public final class FrequentItemsBenchmark {
+  private static final String LS = System.getProperty("line.separator");
+  private static final long SEED = 0x5DEECE66DL;
+  private static final long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L; // odd, so keys are distinct
+  private static final long KEY_INVERSE = inverse(KEY_MULTIPLIER);
+  private static final int CHUNK_SIZE = 1 << 16;
+  private static final int NUM_PARTITIONS = 16;
+
+  private final int[] ranks_; // the stream, as key ranks
+  private final long[] counts_; // exact count of every rank
+  private final long[] keys_;
+  private final String[] stringKeys_;
+
+  private FrequentItemsBenchmark(final int numKeys, final int n, final double s) {
+    final double[] cdf = zipfCdf(numKeys, s);
+    ranks_ = new int[n];
+    final int numChunks = ((n - 1) / CHUNK_SIZE) + 1;
+    counts_ = IntStream.range(0, numChunks).parallel().mapToObj(c -> {
+      final SplittableRandom rand = new SplittableRandom(SEED + c);
+      final long[] chunkCounts = new long[numKeys];
+      final int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+      for (int i = c * CHUNK_SIZE; i < end; ++i) {
+        final int idx = Arrays.binarySearch(cdf, rand.nextDouble());
+        final int rank = Math.min(numKeys - 1, (idx >= 0) ? idx : -idx - 1);
+        ranks_[i] = rank;
+        chunkCounts[rank]++;
+      }
+      return chunkCounts;
+    }).reduce((a, b) -> {
+      for (int r = 0; r < numKeys; ++r) { a[r] += b[r]; }
+      return a;
+    }).get();
+    keys_ = new long[numKeys];
+    stringKeys_ = new String[numKeys];
+    for (int r = 0; r < numKeys; ++r) {
+      keys_[r] = r * KEY_MULTIPLIER;
+      stringKeys_[r] = Long.toHexString(keys_[r]);
+    }
+  }
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int numKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 500_000;
+    final int lgN = (args.length > 1) ? Integer.parseInt(args[1]) : 23;
+    final double s = (args.length > 2) ? Double.parseDouble(args[2]) : 1.1;
+    final double phi = (args.length > 3) ? Double.parseDouble(args[3]) : 1E-4;
+    final int lgMapLo = (args.length > 4) ? Integer.parseInt(args[4]) : 10;
+    final int lgMapHi = (args.length > 5) ? Integer.parseInt(args[5]) : 16;
+    final int n = 1 << lgN;
+
+    final long start_ns = System.nanoTime();
+    final FrequentItemsBenchmark bench = new FrequentItemsBenchmark(numKeys, n, s);
+    final double exactNs = (System.nanoTime() - start_ns) / (double) n;
+    final long threshold = (long) (phi * n);
+
+    System.out.printf("%,d keys, n = %,d, s = %.2f; exact generate and count: %.1f ns/value on"
+        + " %d threads" + LS, numKeys, n, s, exactNs, Runtime.getRuntime().availableProcessors());
+    System.out.printf("phi = %g, phi * n = %,d, %,d true frequent items" + LS, phi, threshold,
+        bench.countAbove(threshold));
+    System.out.printf("%-8s%12s%12s%12s%12s%12s%12s%8s%22s%10s%8s%8s%10s%10s" + LS, "sketch",
+        "maxMapSize", "ns/update", "ns/merge", "bytes", "maxError", "threshold", "true",
+        "errorType", "reported", "FP", "FN", "FP rate", "FN rate");
+    for (int lgMap = lgMapLo; lgMap <= lgMapHi; ++lgMap) {
+      final int maxMapSize = 1 << lgMap;
+      bench.measureLongs(maxMapSize, threshold);
+      bench.measureItems(maxMapSize, threshold);
+    }
+  }
+
+  private void measureLongs(final int maxMapSize, final long threshold) {
+    updateLongs(maxMapSize, 0, ranks_.length); // warmup
+    final long start_ns = System.nanoTime();
+    final LongsSketch sketch = updateLongs(maxMapSize, 0, ranks_.length);
+    final double updateNs = (System.nanoTime() - start_ns) / (double) ranks_.length;
+
+    final LongsSketch[] parts = new LongsSketch[NUM_PARTITIONS];
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      parts[p] = updateLongs(maxMapSize, partitionStart(p), partitionStart(p + 1));
+    }
+    final double mergeNs = nsPerOp(() -> {
+      final LongsSketch merged = new LongsSketch(maxMapSize);
+      for (LongsSketch part : parts) { merged.merge(part); }
+      return merged.getMaximumError();
+    }) / NUM_PARTITIONS;
+
+    final int bytes = sketch.toByteArray().length;
+    final long maxError = sketch.getMaximumError();
+    final long effThreshold = Math.max(threshold, maxError);
+    for (ErrorType errorType : ErrorType.values()) {
+      final LongsSketch.Row[] rows = sketch.getFrequentItems(threshold, errorType);
+      int fp = 0;
+      for (LongsSketch.Row row : rows) {
+        if (counts_[rankOf(row.getItem())] <= effThreshold) { fp++; }
+      }
+      printRow("longs", maxMapSize, updateNs, mergeNs, bytes, maxError, effThreshold,
+          countAbove(effThreshold), errorType, rows.length, fp);
+    }
+  }
+
+  private void measureItems(final int maxMapSize, final long threshold) {
+    updateItems(maxMapSize, 0, ranks_.length); // warmup
+    final long start_ns = System.nanoTime();
+    final ItemsSketch<String> sketch = updateItems(maxMapSize, 0, ranks_.length);
+    final double updateNs = (System.nanoTime() - start_ns) / (double) ranks_.length;
+
+    final List<ItemsSketch<String>> parts = new ArrayList<>(NUM_PARTITIONS);
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      parts.add(updateItems(maxMapSize, partitionStart(p), partitionStart(p + 1)));
+    }
+    final double mergeNs = nsPerOp(() -> {
+      final ItemsSketch<String> merged = new ItemsSketch<>(maxMapSize);
+      for (ItemsSketch<String> part : parts) { merged.merge(part); }
+      return merged.getMaximumError();
+    }) / NUM_PARTITIONS;
+
+    final int bytes = sketch.toByteArray(new ArrayOfStringsSerDe()).length;
+    final long maxError = sketch.getMaximumError();
+    final long effThreshold = Math.max(threshold, maxError);
+    for (ErrorType errorType : ErrorType.values()) {
+      final ItemsSketch.Row<String>[] rows = sketch.getFrequentItems(threshold, errorType);
+      int fp = 0;
+      for (ItemsSketch.Row<String> row : rows) {
+        if (counts_[rankOf(Long.parseUnsignedLong(row.getItem(), 16))] <= effThreshold) { fp++; }
+      }
+      printRow("items", maxMapSize, updateNs, mergeNs, bytes, maxError, effThreshold,
+          countAbove(effThreshold), errorType, rows.length, fp);
+    }
+  }
+
+  private LongsSketch updateLongs(final int maxMapSize, final int from, final int to) {
+    final LongsSketch sketch = new LongsSketch(maxMapSize);
+    for (int i = from; i < to; ++i) { sketch.update(keys_[ranks_[i]]); }
+    return sketch;
+  }
+
+  private ItemsSketch<String> updateItems(final int maxMapSize, final int from, final int to) {
+    final ItemsSketch<String> sketch = new ItemsSketch<>(maxMapSize);
+    for (int i = from; i < to; ++i) { sketch.update(stringKeys_[ranks_[i]]); }
+    return sketch;
+  }
+
+  // The number of keys whose exact count exceeds the threshold
+  private int countAbove(final long threshold) {
+    int num = 0;
+    for (long count : counts_) {
+      if (count > threshold) { num++; }
+    }
+    return num;
+  }
+
+  private int partitionStart(final int p) {
+    return (int) (((long) p * ranks_.length) / NUM_PARTITIONS);
+  }
+
+  // Inverts r * KEY_MULTIPLIER
+  private static int rankOf(final long key) {
+    return (int) (key * KEY_INVERSE);
+  }
+
+  // The inverse of an odd multiplier mod 2^64
+  private static long inverse(final long multiplier) {
+    long inv = multiplier; // Newton's iteration, each step doubles the correct low bits
+    for (int i = 0; i < 5; ++i) { inv *= 2 - (multiplier * inv); }
+    return inv;
+  }
+
+  private static void printRow(final String sketch, final int maxMapSize, final double updateNs,
+                               final double mergeNs, final int bytes, final long maxError,
+                               final long threshold, final int numTrue,
+                               final ErrorType errorType, final int reported, final int fp) {
+    // every true frequent item that is not reported is a false negative
+    final int fn = numTrue - (reported - fp);
+    System.out.printf("%-8s%,12d%12.1f%,12.0f%,12d%,12d%,12d%,8d%22s%,10d%,8d%,8d%10.4f%10.4f"
+        + LS, sketch, maxMapSize, updateNs, mergeNs, bytes, maxError, threshold, numTrue,
+        errorType, reported, fp, fn, (reported > 0) ? (double) fp / reported : 0,
+        (numTrue > 0) ? (double) fn / numTrue : 0);
+  }
+
+  // The cumulative probabilities of the ranks of a Zipf distribution with exponent s
+  private static double[] zipfCdf(final int numKeys, final double s) {
+    final double[] cdf = new double[numKeys];
+    double sum = 0;
+    for (int r = 0; r < numKeys; ++r) {
+      sum += 1.0 / Math.pow(r + 1, s);
+      cdf[r] = sum;
+    }
+    for (int r = 0; r < numKeys; ++r) { cdf[r] /= sum; }
+    return cdf;
+  }
+
+}
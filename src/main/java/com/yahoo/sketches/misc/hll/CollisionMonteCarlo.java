@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.hll;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo check of the bitmap collision model in KevinsQuantizationModel.
+ *
+ * <p>Each trial throws uniformly random hashes into a bitmap of kFactor * k bits until the
+ * first collision, so one trial tells, for every n at once, whether n hashes would have been
+ * collision free. For each kappa the empirical P(no collision) at the crossing n is compared
+ * with both logProbNoCollision and probCequalsN, as a z-score in binomial standard errors. The
+ * crossing is confirmed when the empirical collision probability is below the threshold at
+ * n - 1 and at or above it at n, or when either is within three standard errors of it.
+ *
+ * <p>Trials run on the common fork-join pool, a few leaf tasks per thread. Each leaf owns a
+ * bitmap and a SplittableRandom split from its parent's, so for a given pool size results
+ * depend only on the seed. A trial clears just the words it set, so its cost is proportional to
+ * the hashes thrown, not to the bitmap size.
+ *
+ * <p>Usage: CollisionMonteCarlo [numTrials] [lgK lo] [lgK hi] [kFactor ...]. Bitmaps of more
+ * than Integer.MAX_VALUE bits, e.g., lgK 30 with kFactor 2, are rejected.
+ */
+public final class CollisionMonteCarlo {
+  private static final int LEAVES_PER_THREAD = 4;
+  private static final long SEED = 0x5DEECE66DL;
+
+  private CollisionMonteCarlo() {}
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int numTrials = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    final int lgKlo = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+    final int[] kFactors = (args.length > 3)
+        ? IntStream.range(3, args.length).map(i -> Integer.parseInt(args[i])).toArray()
+        : new int[] {1, 2, 3};
+
+    println(numTrials + " trials per bitmap, " + ForkJoinPool.commonPool().getParallelism()
+        + " threads");
+    println(String.format("%4s %8s %6s %10s %14s %8s %14s %8s %14s %10s",
+        "LgK", "kFactor", "kappa", "n", "model P(n)", "z", "probCequalsN", "z", "MC P(n)",
+        "crossing"));
+    long totalInserts = 0;
+    final long startTime_ns = System.nanoTime();
+    for (int lgK = lgKlo; lgK <= lgKhi; lgK++) {
+      for (final int kFactor : kFactors) {
+        totalInserts += validate(lgK, kFactor, numTrials);
+      }
+    }
+    final double elapsedSec = (System.nanoTime() - startTime_ns) / 1e9;
+    println(String.format("%,d hash insertions in %.1f s (%,.0f per second)", totalInserts,
+        elapsedSec, totalInserts / elapsedSec));
+  }
+
+  // Prints one line per kappa for this bitmap and returns the number of hashes thrown
+  private static long validate(final int lgK, final int kFactor, final int numTrials) {
+    final double bitmapSize = (double) kFactor * (1L << lgK);
+    if (bitmapSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(String.format("A bitmap of kFactor %d * 2^%d bits"
+          + " exceeds the %d bits a trial can simulate", kFactor, lgK, Integer.MAX_VALUE));
+    }
+    final int[] crossingNs = KevinsQuantizationModel.crossingNs(lgK, kFactor);
+
+    // query points: n - 1 and n for every kappa
+    final int[] queryNs = new int[2 * crossingNs.length];
+    for (int i = 0; i < crossingNs.length; i++) {
+      queryNs[2 * i] = crossingNs[i] - 1;
+      queryNs[(2 * i) + 1] = crossingNs[i];
+    }
+    final long[] result = countSurvivors((int) bitmapSize, queryNs, numTrials, SEED + lgK
+        + (31L * kFactor));
+
+    for (int i = 0; i < crossingNs.length; i++) {
+      final int kappa = i - 3;
+      final double threshold = KevinsQuantizationModel.thresholds[i];
+      final int n = crossingNs[i];
+      final double model = Math.exp(KevinsQuantizationModel.logProbNoCollision(bitmapSize, n));
+      final double closedForm = KevinsQuantizationModel.probCequalsN(bitmapSize, n);
+      final double mcBefore = (double) result[2 * i] / numTrials;
+      final double mcAt = (double) result[(2 * i) + 1] / numTrials;
+
+      // collision probability is 1 - P(no collision)
+      final boolean crossesHere = ((1.0 - mcBefore) < threshold) && ((1.0 - mcAt) >= threshold);
+      final double thresholdSe = Math.sqrt((threshold * (1.0 - threshold)) / numTrials);
+      final boolean withinError = Math.abs((1.0 - mcAt) - threshold) < (3 * thresholdSe)
+          || Math.abs((1.0 - mcBefore) - threshold) < (3 * thresholdSe);
+      final String crossing = crossesHere ? "ok" : (withinError ? "ok (+/-)" : "MISMATCH");
+
+      println(String.format("%4d %8d %6d %10d %14.8f %8.2f %14.8f %8.2f %14.8f %10s",
+          lgK, kFactor, kappa, n, model, zScore(mcAt, model, numTrials), closedForm,
+          zScore(mcAt, closedForm, numTrials), mcAt, crossing));
+    }
+    return result[queryNs.length];
+  }
+
+  private static double zScore(final double observed, final double expected, final int trials) {
+    final double se = Math.sqrt((expected * (1.0 - expected)) / trials);
+    return (se > 0) ? (observed - expected) / se : 0.0;
+  }
+
+  /**
+   * Runs numTrials trials in parallel on the common pool.
+   *
+   * @param bitmapSize number of bits in the bitmap
+   * @param queryNs numbers of hashes to test, in any order
+   * @param numTrials number of trials
+   * @param seed root seed
+   * @return for each query n, the number of trials with no collision among the first n hashes,
+   * followed by the total number of hashes thrown
+   */
+  static long[] countSurvivors(final int bitmapSize, final int[] queryNs, final int numTrials,
+                               final long seed) {
+    if (bitmapSize <= 0) {
+      throw new IllegalArgumentException("bitmapSize must be positive: " + bitmapSize);
+    }
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    final int numLeaves = pool.getParallelism() * LEAVES_PER_THREAD;
+    final int grain = Math.max(1, (numTrials + numLeaves - 1) / numLeaves);
+    return pool.invoke(new TrialTask(bitmapSize, queryNs, numTrials, grain,
+        new SplittableRandom(seed)));
+  }
+
+  private static final class TrialTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final int bitmapSize_;
+    private final int[] queryNs_;
+    private final int numTrials_;
+    private final int grain_;
+    private final SplittableRandom rng_;
+
+    TrialTask(final int bitmapSize, final int[] queryNs, final int numTrials, final int grain,
+              final SplittableRandom rng) {
+      bitmapSize_ = bitmapSize;
+      queryNs_ = queryNs;
+      numTrials_ = numTrials;
+      grain_ = grain;
+      rng_ = rng;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (numTrials_ <= grain_) {
+        return runTrials();
+      }
+      final int half = numTrials_ >>> 1;
+      final TrialTask left = new TrialTask(bitmapSize_, queryNs_, half, grain_,
+          rng_.split());
+      left.fork();
+      final long[] right = new TrialTask(bitmapSize_, queryNs_, numTrials_ - half,
+          grain_, rng_).compute();
+      final long[] sums = left.join();
+      for (int i = 0; i < sums.length; i++) { sums[i] += right[i]; }
+      return sums;
+    }
+
+    private long[] runTrials() {
+      final int maxN = Arrays.stream(queryNs_).max().getAsInt();
+      final long[] bits = new long[(bitmapSize_ + 63) >>> 6];
+      final int[] touched = new int[maxN + 1];
+      final long[] counts = new long[queryNs_.length + 1];
+
+      for (int t = 0; t < numTrials_; t++) {
+        // number of hashes that went in without a collision, up to maxN + 1
+        int numClean = 0;
+        while (numClean <= maxN) {
+          final int idx = rng_.nextInt(bitmapSize_);
+          final int word = idx >>> 6;
+          final long mask = 1L << idx;
+          if ((bits[word] & mask) != 0) { break; }
+          bits[word] |= mask;
+          touched[numClean++] = word;
+        }
+        counts[queryNs_.length] += Math.min(numClean + 1, maxN + 1);
+        for (int i = 0; i < numClean; i++) { bits[touched[i]] = 0; }
+        for (int q = 0; q < queryNs_.length; q++) {
+          if (numClean >= queryNs_[q]) { counts[q]++; }
+        }
+      }
+      return counts;
+    }
+  }
+
+  private static void println(final String s) {
+    System.out.println(s);
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.hll;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed table of the collision crossing points of KevinsQuantizationModel: for every
+ * lgK in a range, every kFactor in a list and every kappa in -3 to +3, the smallest number of
+ * uniques n at which the probability of a collision in a bitmap of kFactor * k bits reaches
+ * the normal rank of kappa.
+ *
+ * <p>The table is computed in parallel, and can be written as a compact little-endian binary
+ * file, four bytes per entry after a short header, and as CSV. A loaded table answers
+ * getCrossingN() with one array read.
+ *
+ * <p>Usage: CollisionThresholdTable &lt;output base&gt; [lgK lo] [lgK hi] [kFactor ...] writes
+ * base.bin and base.csv, by default for lgK 4 to 30 and kFactor 1, 2 and 3.
+ */
+public final class CollisionThresholdTable {
+  private static final int MAGIC = 0x48435454; // "HCTT"
+  private static final int VERSION = 1;
+  static final int MIN_KAPPA = -3;
+  static final int MAX_KAPPA = 3;
+  private static final int NUM_KAPPAS = (MAX_KAPPA - MIN_KAPPA) + 1;
+  // the smallest lgK of an HllSketch. Below it a bitmap of kFactor * k bits may hold all its
+  // values without the collision probability reaching the kappa = 3 threshold.
+  static final int MIN_LG_K = 4;
+  static final int MAX_LG_K = 32;
+  static final int MAX_KFACTOR = 1024;
+
+  private final int lgKlo_;
+  private final int lgKhi_;
+  private final int[] kFactors_;
+  private final int[] kFactorIndex_; // kFactor -> column, or -1
+  private final int[] crossingNs_;
+
+  private CollisionThresholdTable(final int lgKlo, final int lgKhi, final int[] kFactors,
+                                  final int[] crossingNs) {
+    checkShape(lgKlo, lgKhi, kFactors);
+    if (crossingNs.length != (((lgKhi - lgKlo) + 1) * kFactors.length * NUM_KAPPAS)) {
+      throw new IllegalArgumentException("Expected " + (((lgKhi - lgKlo) + 1)
+          * kFactors.length * NUM_KAPPAS) + " entries, found " + crossingNs.length);
+    }
+    lgKlo_ = lgKlo;
+    lgKhi_ = lgKhi;
+    kFactors_ = kFactors.clone();
+    crossingNs_ = crossingNs;
+    kFactorIndex_ = new int[Arrays.stream(kFactors).max().getAsInt() + 1];
+    Arrays.fill(kFactorIndex_, -1);
+    for (int i = 0; i < kFactors.length; ++i) {
+      kFactorIndex_[kFactors[i]] = i;
+    }
+  }
+
+  // Checks the table dimensions before anything is sized from them
+  private static void checkShape(final int lgKlo, final int lgKhi, final int[] kFactors) {
+    if ((lgKlo < MIN_LG_K) || (lgKhi > MAX_LG_K) || (lgKlo > lgKhi)) {
+      throw new IllegalArgumentException("lgK range must be within [" + MIN_LG_K + ", "
+          + MAX_LG_K + "]: " + lgKlo + " to " + lgKhi);
+    }
+    if (kFactors.length == 0) {
+      throw new IllegalArgumentException("Empty table: no kFactors");
+    }
+    final boolean[] seen = new boolean[MAX_KFACTOR + 1];
+    for (int kFactor : kFactors) {
+      if ((kFactor <= 0) || (kFactor > MAX_KFACTOR)) {
+        throw new IllegalArgumentException("kFactor must be in [1, " + MAX_KFACTOR + "]: "
+            + kFactor);
+      }
+      if (seen[kFactor]) {
+        throw new IllegalArgumentException("Duplicate kFactor: " + kFactor);
+      }
+      seen[kFactor] = true;
+    }
+  }
+
+  /**
+   * Computes a table in parallel, one task per (lgK, kFactor) cell, each of which solves its
+   * seven kappas in parallel.
+   *
+   * @param lgKlo smallest lgK
+   * @param lgKhi largest lgK
+   * @param kFactors bitmap bits per k
+   * @return the table
+   */
+  public static CollisionThresholdTable compute(final int lgKlo, final int lgKhi,
+                                                final int... kFactors) {
+    checkShape(lgKlo, lgKhi, kFactors);
+    final int numCells = ((lgKhi - lgKlo) + 1) * kFactors.length;
+    final int[][] cells = IntStream.range(0, numCells).parallel()
+        .mapToObj(cell -> KevinsQuantizationModel.crossingNs(lgKlo + (cell / kFactors.length),
+            kFactors[cell % kFactors.length]))
+        .toArray(int[][]::new);
+    final int[] crossingNs = new int[numCells * NUM_KAPPAS];
+    for (int cell = 0; cell < numCells; ++cell) {
+      System.arraycopy(cells[cell], 0, crossingNs, cell * NUM_KAPPAS, NUM_KAPPAS);
+    }
+    return new CollisionThresholdTable(lgKlo, lgKhi, kFactors, crossingNs);
+  }
+
+  /**
+   * Returns the smallest n at which a bitmap of kFactor * 2^lgK bits reaches the collision
+   * probability of kappa standard deviations.
+   *
+   * @param lgK log2 of k
+   * @param kFactor bitmap bits per k
+   * @param kappa number of standard deviations, -3 to 3
+   * @return the crossing n
+   */
+  public int getCrossingN(final int lgK, final int kFactor, final int kappa) {
+    final int col = (kFactor < kFactorIndex_.length) && (kFactor > 0)
+        ? kFactorIndex_[kFactor] : -1;
+    if ((lgK < lgKlo_) || (lgK > lgKhi_) || (col < 0)
+        || (kappa < MIN_KAPPA) || (kappa > MAX_KAPPA)) {
+      throw new IllegalArgumentException(String.format(
+          "Not in table: lgK %d, kFactor %d, kappa %d", lgK, kFactor, kappa));
+    }
+    return crossingNs_[(((((lgK - lgKlo_) * kFactors_.length) + col) * NUM_KAPPAS)
+        + (kappa - MIN_KAPPA))];
+  }
+
+  public int getLgKlo() {
+    return lgKlo_;
+  }
+
+  public int getLgKhi() {
+    return lgKhi_;
+  }
+
+  public int[] getKFactors() {
+    return kFactors_.clone();
+  }
+
+  /**
+   * @return the binary form: a header of magic, version, lgK range and kFactors, then the
+   * crossing n of every entry in (lgK, kFactor, kappa) order, all little-endian ints
+   */
+  public byte[] toByteArray() {
+    final ByteBuffer buf = ByteBuffer.allocate((5 + kFactors_.length + crossingNs_.length)
+        * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(MAGIC).putInt(VERSION).putInt(lgKlo_).putInt(lgKhi_).putInt(kFactors_.length);
+    for (int kFactor : kFactors_) { buf.putInt(kFactor); }
+    for (int n : crossingNs_) { buf.putInt(n); }
+    return buf.array();
+  }
+
+  /**
+   * @param bytes the output of toByteArray()
+   * @return the table
+   * @throws IllegalArgumentException if bytes is not a valid table
+   */
+  public static CollisionThresholdTable heapify(final byte[] bytes) {
+    final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    if ((bytes.length < (5 * Integer.BYTES)) || (buf.getInt() != MAGIC)
+        || (buf.getInt() != VERSION)) {
+      throw new IllegalArgumentException("Not a version " + VERSION + " threshold table");
+    }
+    final int lgKlo = buf.getInt();
+    final int lgKhi = buf.getInt();
+    final int numKFactors = buf.getInt();
+    if ((numKFactors <= 0) || (numKFactors > MAX_KFACTOR)) {
+      throw new IllegalArgumentException("Corrupt threshold table: " + numKFactors
+          + " kFactors");
+    }
+    if ((buf.remaining() / Integer.BYTES) < numKFactors) {
+      throw new IllegalArgumentException("Truncated threshold table");
+    }
+    final int[] kFactors = new int[numKFactors];
+    for (int i = 0; i < numKFactors; ++i) { kFactors[i] = buf.getInt(); }
+    checkShape(lgKlo, lgKhi, kFactors);
+    if ((buf.remaining() % Integer.BYTES) != 0) {
+      throw new IllegalArgumentException("Truncated threshold table");
+    }
+    final int[] crossingNs = new int[buf.remaining() / Integer.BYTES];
+    buf.asIntBuffer().get(crossingNs);
+    return new CollisionThresholdTable(lgKlo, lgKhi, kFactors, crossingNs);
+  }
+
+  /**
+   * @param path a file written by write()
+   * @return the table
+   * @throws IOException if the file cannot be read
+   */
+  public static CollisionThresholdTable load(final Path path) throws IOException {
+    return heapify(Files.readAllBytes(path));
+  }
+
+  /**
+   * @param path the binary file to write
+   * @throws IOException if the file cannot be written
+   */
+  public void write(final Path path) throws IOException {
+    Files.write(path, toByteArray());
+  }
+
+  /**
+   * Writes one CSV row per (lgK, kFactor) with the crossing n of each kappa.
+   * @param path the CSV file to write
+   * @throws IOException if the file cannot be written
+   */
+  public void writeCsv(final Path path) throws IOException {
+    try (Writer w = Files.newBufferedWriter(path, UTF_8)) {
+      w.write(toDelimitedString(","));
+    }
+  }
+
+  /**
+   * @param sep column separator
+   * @return a header row and one row per (lgK, kFactor)
+   */
+  public String toDelimitedString(final String sep) {
+    final String ls = System.lineSeparator();
+    final StringBuilder sb = new StringBuilder("lgK").append(sep).append("kFactor");
+    for (int kappa = MIN_KAPPA; kappa <= MAX_KAPPA; ++kappa) {
+      sb.append(sep).append("n(").append(kappa).append(")");
+    }
+    sb.append(ls);
+    for (int lgK = lgKlo_; lgK <= lgKhi_; ++lgK) {
+      for (int kFactor : kFactors_) {
+        sb.append(lgK).append(sep).append(kFactor);
+        for (int kappa = MIN_KAPPA; kappa <= MAX_KAPPA; ++kappa) {
+          sb.append(sep).append(getCrossingN(lgK, kFactor, kappa));
+        }
+        sb.append(ls);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param args see the class description
+   * @throws IOException if an output file cannot be written
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: CollisionThresholdTable <output base> [lgK lo] [lgK hi]"
+          + " [kFactor ...]");
+      return;
+    }
+    final int lgKlo = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : 30;
+    final int[] kFactors = (args.length > 3)
+        ? IntStream.range(3, args.length).map(i -> Integer.parseInt(args[i])).toArray()
+        : new int[] {1, 2, 3};
+
+    final long startTime_ns = System.nanoTime();
+    final CollisionThresholdTable table = compute(lgKlo, lgKhi, kFactors);
+    final long elapsed_ns = System.nanoTime() - startTime_ns;
+
+    final Path binPath = Paths.get(args[0] + ".bin");
+    final Path csvPath = Paths.get(args[0] + ".csv");
+    table.write(binPath);
+    table.writeCsv(csvPath);
+    if (!Arrays.equals(load(binPath).crossingNs_, table.crossingNs_)) {
+      throw new IllegalStateException("Reloaded table differs from the computed one");
+    }
+    System.out.println(String.format("Computed %d entries in %.3f s; wrote %s (%d bytes) and %s",
+        table.crossingNs_.length, elapsed_ns / 1e9, binPath, Files.size(binPath), csvPath));
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.hll;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+import com.yahoo.sketches.hll.HllSketch;
+import com.yahoo.sketches.hll.TgtHllType;
+import com.yahoo.sketches.quantiles.DoublesSketch;
+import com.yahoo.sketches.quantiles.DoublesUnion;
+import com.yahoo.sketches.quantiles.UpdateDoublesSketch;
+
+/**
+ * Empirical relative error of HllSketch for each lgK and TgtHllType, at log-spaced numbers of
+ * uniques from 1 to 2^lgMaxN.
+ *
+ * <p>Each trial feeds one sketch a stream of unique keys, starting at a random offset, and
+ * records the relative error estimate / n - 1 each time the stream passes one of the points, so
+ * a single trial covers every point up to its length. Small n gets 2^lgMaxT trials and the
+ * number of trials falls log-linearly to 2^lgMinT at the largest n; trial t stops at the last
+ * point that still needs more than t trials.
+ *
+ * <p>The errors at each point go into a quantiles DoublesSketch rather than an array, so memory
+ * does not grow with the number of trials. Trials run one task each on the common fork-join
+ * pool. Every worker thread accumulates into its own sketches, which the profile holds by thread
+ * and unions once at the end, so nothing is left behind on the pool threads. The keys of a
+ * trial depend only on the seed and the trial index.
+ *
+ * <p>Each output row has the mean and root mean square relative error and the relative error at
+ * the normal ranks of -3 to +3 standard deviations, plus the minimum and maximum.
+ *
+ * <p>Usage: HllAccuracyProfile &lt;output.csv&gt; [lgK lo] [lgK hi] [lgMaxN] [lgMinT] [lgMaxT]
+ * [points per octave], by default lgK 4 to 12, n up to 2^20 and 2^10 to 2^6 trials at 16
+ * points per octave, which runs in under a minute. The full profile, lgK 4 to 21, n up to 2^32
+ * and 2^14 to 2^10 trials, is given by the arguments 4 21 32 10 14 16 and takes days of CPU time.
+ */
+public final class HllAccuracyProfile {
+  private static final long SEED = 0x5DEECE66DL;
+  private static final int QUANTILES_K = 1024;
+
+  /** Normal CDF at -3 to +3 standard deviations, bracketed by the minimum and maximum */
+  private static final double[] RANKS = {0.0, 0.00134989803163, 0.0227501319482,
+      0.158655253931, 0.5, 0.841344746069, 0.977249868052, 0.998650101968, 1.0};
+
+  private final int lgK_;
+  private final TgtHllType type_;
+  private final long[] points_;
+  private final int[] trials_; // per point, non-increasing
+  private final Map<Thread, Accumulator> accumulators_ = new ConcurrentHashMap<>();
+
+  private HllAccuracyProfile(final int lgK, final TgtHllType type, final long[] points,
+                             final int[] trials) {
+    lgK_ = lgK;
+    type_ = type;
+    points_ = points;
+    trials_ = trials;
+  }
+
+  /**
+   * @param args see the class description
+   * @throws IOException if the output file cannot be written
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: HllAccuracyProfile <output.csv> [lgK lo] [lgK hi] [lgMaxN]"
+          + " [lgMinT] [lgMaxT] [points per octave]");
+      return;
+    }
+    final int lgKlo = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : 12;
+    final int lgMaxN = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+    final int lgMinT = (args.length > 4) ? Integer.parseInt(args[4]) : 6;
+    final int lgMaxT = (args.length > 5) ? Integer.parseInt(args[5]) : 10;
+    final int ppo = (args.length > 6) ? Integer.parseInt(args[6]) : 16;
+
+    final long[] points = getPoints(lgMaxN, ppo);
+    final int[] trials = getTrials(points, lgMaxN, lgMinT, lgMaxT);
+    println(points.length + " points to 2^" + lgMaxN + ", " + trials[0] + " to "
+        + trials[trials.length - 1] + " trials per point, "
+        + ForkJoinPool.commonPool().getParallelism() + " threads, quantiles k = " + QUANTILES_K
+        + String.format(" (rank error %.3f%%)",
+            100 * DoublesSketch.getNormalizedRankError(QUANTILES_K)));
+
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[0]), UTF_8))) {
+      out.println(getHeaderString());
+      for (int lgK = lgKlo; lgK <= lgKhi; lgK++) {
+        for (final TgtHllType type : TgtHllType.values()) {
+          final HllAccuracyProfile profile = new HllAccuracyProfile(lgK, type, points, trials);
+          final long startTime_ns = System.nanoTime();
+          final long updates = profile.run();
+          final double elapsedSec = (System.nanoTime() - startTime_ns) / 1e9;
+          profile.writeRows(out);
+          out.flush();
+          println(String.format("LgK %2d %s: %,d updates in %.1f s (%,.0f per second)", lgK,
+              type, updates, elapsedSec, updates / elapsedSec));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param lgMaxN log2 of the largest n
+   * @param ppo points per octave
+   * @return the distinct values of round(2^(i / ppo)) from 1 to 2^lgMaxN
+   */
+  static long[] getPoints(final int lgMaxN, final int ppo) {
+    return IntStream.rangeClosed(0, lgMaxN * ppo)
+        .mapToLong(i -> Math.round(Math.pow(2.0, (double) i / ppo)))
+        .distinct().toArray();
+  }
+
+  // trials fall log-linearly in n from 2^lgMaxT at n = 1 to 2^lgMinT at n = 2^lgMaxN
+  static int[] getTrials(final long[] points, final int lgMaxN, final int lgMinT,
+                         final int lgMaxT) {
+    final int[] trials = new int[points.length];
+    for (int i = 0; i < points.length; i++) {
+      final double frac = (lgMaxN == 0) ? 0.0 : (Math.log(points[i]) / Math.log(2)) / lgMaxN;
+      trials[i] = (int) Math.round(Math.pow(2.0, lgMaxT - (frac * (lgMaxT - lgMinT))));
+    }
+    return trials;
+  }
+
+  // Runs every trial and returns the total number of updates
+  private long run() {
+    ForkJoinPool.commonPool().invoke(new TrialRange(0, trials_[0]));
+    long updates = 0;
+    for (Accumulator acc : accumulators_.values()) { updates += acc.updates; }
+    return updates;
+  }
+
+  private final class TrialRange extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int lo_;
+    private final int hi_;
+
+    TrialRange(final int lo, final int hi) {
+      lo_ = lo;
+      hi_ = hi;
+    }
+
+    // one task per trial, since early trials run to much larger n than late ones
+    @Override
+    protected void compute() {
+      if ((hi_ - lo_) == 1) {
+        accumulators_.computeIfAbsent(Thread.currentThread(), t -> new Accumulator())
+            .runTrial(lo_);
+        return;
+      }
+      final int mid = (lo_ + hi_) >>> 1;
+      invokeAll(new TrialRange(lo_, mid), new TrialRange(mid, hi_));
+    }
+  }
+
+  // Per-thread sketch and error sketches, only touched by the owning thread until run() returns
+  private final class Accumulator {
+    final HllSketch sketch = new HllSketch(lgK_, type_);
+    final UpdateDoublesSketch[] errors = new UpdateDoublesSketch[points_.length];
+    final double[] sumErr = new double[points_.length];
+    final double[] sumSqErr = new double[points_.length];
+    long updates;
+
+    Accumulator() {
+      for (int i = 0; i < errors.length; i++) {
+        errors[i] = DoublesSketch.builder().setK(QUANTILES_K).build();
+      }
+    }
+
+    void runTrial(final int trial) {
+      final long base = new SplittableRandom(SEED + trial).nextLong();
+      sketch.reset();
+      long n = 0;
+      for (int i = 0; (i < points_.length) && (trial < trials_[i]); i++) {
+        for (; n < points_[i]; n++) { sketch.update(base + n); }
+        final double relErr = (sketch.getEstimate() / n) - 1.0;
+        errors[i].update(relErr);
+        sumErr[i] += relErr;
+        sumSqErr[i] += relErr * relErr;
+      }
+      updates += n;
+    }
+  }
+
+  private static String getHeaderString() {
+    return "LgK,Type,n,Trials,MeanRE,RmsRE,Min,-3SD,-2SD,-1SD,Median,+1SD,+2SD,+3SD,Max";
+  }
+
+  private void writeRows(final PrintWriter out) {
+    for (int i = 0; i < points_.length; i++) {
+      final DoublesUnion union = DoublesUnion.builder().setMaxK(QUANTILES_K).build();
+      double sumErr = 0;
+      double sumSqErr = 0;
+      for (Accumulator acc : accumulators_.values()) {
+        union.update(acc.errors[i]);
+        sumErr += acc.sumErr[i];
+        sumSqErr += acc.sumSqErr[i];
+      }
+      final StringBuilder sb = new StringBuilder();
+      sb.append(lgK_).append(',').append(type_).append(',').append(points_[i]).append(',')
+          .append(trials_[i]).append(',').append(String.format("%.6g", sumErr / trials_[i]))
+          .append(',').append(String.format("%.6g", Math.sqrt(sumSqErr / trials_[i])));
+      for (double q : union.getResult().getQuantiles(RANKS)) {
+        sb.append(',').append(String.format("%.6g", q));
+      }
+      out.println(sb);
+    }
+  }
+
+  private static void println(final String s) {
+    System.out.println(s);
+  }
+
+}
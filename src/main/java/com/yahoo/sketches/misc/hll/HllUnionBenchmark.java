@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.hll;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.hll.HllSketch;
+import com.yahoo.sketches.hll.TgtHllType;
+import com.yahoo.sketches.hll.Union;
+import com.yahoo.sketches.misc.BatchTimer;
+import com.yahoo.sketches.misc.LatencyHistogram;
+import com.yahoo.sketches.misc.TreeReduce;
+
+/**
+ * Measures merging many HllSketches with com.yahoo.sketches.hll.Union, as a sequential fold into
+ * one union and as a parallel tree reduction, with the unions on the heap or in direct
+ * (off-heap) WritableMemory.
+ *
+ * <p>Three input populations are used, each with a random TgtHllType per sketch:
+ * <ul>
+ * <li>SPARSE: lgK = lgMaxK and at most k/16 uniques, so every input is in LIST or SET mode.</li>
+ * <li>DENSE: lgK = lgMaxK and k to 16k uniques, so every input is in HLL mode.</li>
+ * <li>MIXED: lgK from lgMaxK - 4 to lgMaxK + 2 and log-normally distributed uniques, so inputs
+ * are in every mode and some must be downsampled to the union's lgMaxK.</li>
+ * </ul>
+ *
+ * <p>For the sequential fold the mean ns per merge is reported along with the distribution of
+ * individual merge times, measured in a separate pass since timing each merge adds overhead.
+ * The tail of that distribution shows where the union changes mode or converts an input. The
+ * time of getResult() is reported for the union's own HLL_8 type and for a conversion to HLL_4.
+ * The tree reduction builds a union per node, including its direct memory if any, and passes
+ * HLL_8 results up the tree.
+ *
+ * <p>Usage: HllUnionBenchmark [numQueries] [lgMaxK] [numSketches]
+ */
+public final class HllUnionBenchmark {
+  private static final int WARMUP_QUERIES = 5;
+  private static final int MAX_INPUT_N = 1 << 16;
+  private static final Random rand = new Random();
+
+  private HllUnionBenchmark() {}
+
+  enum Population {
+    SPARSE, DENSE, MIXED;
+
+    HllSketch newInput(final int lgMaxK, final long firstKey) {
+      final TgtHllType type = TgtHllType.values()[rand.nextInt(TgtHllType.values().length)];
+      final int k = 1 << lgMaxK;
+      final int lgK;
+      final long n;
+      switch (this) {
+        case SPARSE:
+          lgK = lgMaxK;
+          n = 1 + rand.nextInt(Math.max(1, k >>> 4));
+          break;
+        case DENSE:
+          lgK = lgMaxK;
+          n = (long) k * (1 + rand.nextInt(16));
+          break;
+        default:
+          lgK = Math.max(4, Math.min(21, (lgMaxK - 4) + rand.nextInt(7)));
+          n = Math.min(MAX_INPUT_N, Math.round(Math.exp(2 * rand.nextGaussian()) * k) + 1);
+          break;
+      }
+      final HllSketch sk = new HllSketch(lgK, type);
+      for (long key = firstKey; key < (firstKey + n); key++) { sk.update(key); }
+      return sk;
+    }
+
+    // The most uniques newInput() can give an input for the given lgMaxK
+    long getMaxN(final int lgMaxK) {
+      final int k = 1 << lgMaxK;
+      switch (this) {
+        case SPARSE: return Math.max(1, k >>> 4);
+        case DENSE: return 16L * k;
+        default: return MAX_INPUT_N;
+      }
+    }
+  }
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int numQueries = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+    final int lgMaxK = (args.length > 1) ? Integer.parseInt(args[1]) : 12;
+    final int numSketches = (args.length > 2) ? Integer.parseInt(args[2]) : 4096;
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    println("Merging " + numSketches + " sketches into a union of lgMaxK " + lgMaxK + ", "
+        + numQueries + " queries after " + WARMUP_QUERIES + " warmup queries:");
+    println(String.format("%-8s%8s%6s%8s%12s" + LatencyHistogram.getQuantilesHeader(10)
+        + "%16s%16s%14s", "inputs", "memory", "mode", "threads", "ns/merge", "ns/getRes(8)",
+        "ns/getRes(4)", "estimate"));
+
+    for (final Population pop : Population.values()) {
+      final List<HllSketch> sketches = new ArrayList<>(numSketches);
+      long key = 0;
+      for (int i = 0; i < numSketches; i++) {
+        final HllSketch sk = pop.newInput(lgMaxK, key);
+        sketches.add(sk);
+        key += pop.getMaxN(lgMaxK); // inputs are disjoint, so the estimate can be checked by eye
+      }
+
+      for (final boolean direct : new boolean[] {false, true}) {
+        final WritableDirectHandle handle = direct
+            ? WritableMemory.allocateDirect(Union.getMaxSerializationBytes(lgMaxK)) : null;
+        try {
+          final WritableMemory mem = direct ? handle.get() : null;
+          runSequential(sketches, lgMaxK, mem, WARMUP_QUERIES);
+          println(String.format("%-8s%8s%6s", pop, direct ? "direct" : "heap", "seq")
+              + runSequential(sketches, lgMaxK, mem, numQueries));
+        } finally {
+          if (handle != null) { handle.close(); }
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+          final ForkJoinPool pool = new ForkJoinPool(threads);
+          // leave each thread several leaves so work stealing can balance the tree
+          final int grain = Math.max(1, numSketches / (threads * 8));
+          runTree(sketches, lgMaxK, direct, grain, pool, WARMUP_QUERIES);
+          println(String.format("%-8s%8s%6s", pop, direct ? "direct" : "heap", "tree")
+              + runTree(sketches, lgMaxK, direct, grain, pool, numQueries));
+          pool.shutdown();
+        }
+      }
+    }
+  }
+
+  // Folds all sketches into one union per query, starting at a random index
+  private static String runSequential(final List<HllSketch> sketches, final int lgMaxK,
+                                      final WritableMemory mem, final int numQueries) {
+    final int numSketches = sketches.size();
+    final LatencyHistogram mergeHist = new LatencyHistogram();
+    long foldTotal_ns = 0;
+    long getResult8_ns = 0;
+    long getResult4_ns = 0;
+    double estimate = 0;
+    for (int q = 0; q < numQueries; q++) {
+      final int startIdx = rand.nextInt(numSketches);
+      Union union = newUnion(lgMaxK, mem);
+      final long start_ns = System.nanoTime();
+      for (int i = 0; i < numSketches; i++) {
+        union.update(sketches.get((startIdx + i) % numSketches));
+      }
+      foldTotal_ns += System.nanoTime() - start_ns;
+
+      final long result8Start_ns = System.nanoTime();
+      final HllSketch result8 = union.getResult(TgtHllType.HLL_8);
+      final long result4Start_ns = System.nanoTime();
+      final HllSketch result4 = union.getResult(TgtHllType.HLL_4);
+      final long result4End_ns = System.nanoTime();
+      getResult8_ns += result4Start_ns - result8Start_ns;
+      getResult4_ns += result4End_ns - result4Start_ns;
+      estimate = result8.getEstimate();
+      BatchTimer.consume(result4.getEstimate());
+
+      // instrumented pass for the distribution of individual merges
+      union = newUnion(lgMaxK, mem);
+      for (int i = 0; i < numSketches; i++) {
+        final HllSketch sk = sketches.get((startIdx + i) % numSketches);
+        final long mergeStart_ns = System.nanoTime();
+        union.update(sk);
+        mergeHist.record(System.nanoTime() - mergeStart_ns);
+      }
+      BatchTimer.consume(union.getEstimate());
+    }
+    return String.format("%8d%,12.1f", 1, foldTotal_ns / ((double) numQueries * numSketches))
+        + mergeHist.toQuantilesString(10)
+        + String.format("%,16.0f%,16.0f%,14.0f", getResult8_ns / (double) numQueries,
+            getResult4_ns / (double) numQueries, estimate);
+  }
+
+  // Reduces all sketches as a tree per query; ns/merge counts every merge of an input
+  private static String runTree(final List<HllSketch> sketches, final int lgMaxK,
+                                final boolean direct, final int grain, final ForkJoinPool pool,
+                                final int numQueries) {
+    final int numSketches = sketches.size();
+    long total_ns = 0;
+    double estimate = 0;
+    for (int q = 0; q < numQueries; q++) {
+      final int startIdx = rand.nextInt(numSketches);
+      final long start_ns = System.nanoTime();
+      final HllSketch result = pool.invoke(new TreeReduce<HllSketch>(numSketches, grain,
+          (lo, hi) -> {
+            final List<HllSketch> run = new ArrayList<>(hi - lo);
+            for (int i = lo; i < hi; ++i) {
+              run.add(sketches.get((startIdx + i) % numSketches));
+            }
+            return merge(run, lgMaxK, direct);
+          },
+          (left, right) -> merge(Arrays.asList(left, right), lgMaxK, direct)));
+      total_ns += System.nanoTime() - start_ns;
+      estimate = result.getEstimate();
+    }
+    BatchTimer.consume(estimate);
+    return String.format("%8d%,12.1f", pool.getParallelism(),
+        total_ns / ((double) numQueries * numSketches))
+        + String.format("%" + (10 * (LatencyHistogram.REPORT_QUANTILES.length + 1)) + "s", "")
+        + String.format("%16s%16s%,14.0f", "-", "-", estimate);
+  }
+
+  private static Union newUnion(final int lgMaxK, final WritableMemory mem) {
+    return (mem == null) ? new Union(lgMaxK) : new Union(lgMaxK, mem);
+  }
+
+  // Merges the inputs in a new union, with its own direct memory if direct
+  private static HllSketch merge(final List<HllSketch> inputs, final int lgMaxK,
+                                 final boolean direct) {
+    final WritableDirectHandle handle = direct
+        ? WritableMemory.allocateDirect(Union.getMaxSerializationBytes(lgMaxK)) : null;
+    try {
+      final Union union = newUnion(lgMaxK, direct ? handle.get() : null);
+      for (HllSketch sk : inputs) { union.update(sk); }
+      return union.getResult(TgtHllType.HLL_8);
+    } finally {
+      if (handle != null) { handle.close(); }
+    }
+  }
+
+  private static void println(final String s) {
+    System.out.println(s);
+  }
+
+}
@@ -7,9 +7,17 @@ package com.yahoo.sketches.misc.hll;
 
 import static java.lang.Math.log;
 
-import org.testng.annotations.Test;
+import java.util.stream.IntStream;
 
 /**
+ * Models when a bitmap sketch of kFactor * k bits first sees a collision, by finding, for each
+ * kappa in -3 to +3, the smallest number of uniques n at which the probability of at least one
+ * collision reaches the normal rank of kappa standard deviations.
+ *
+ * <p>Usage: KevinsQuantizationModel [lgK lo] [lgK hi] [kFactor ...]. With no arguments this
+ * runs the whole grid of lgK 4 to 30 for kFactor 1, 2 and 3. "verify" instead checks the
+ * solver against a linear scan over the whole grid.
+ *
  * @author Lee Rhodes
  */
 public final class KevinsQuantizationModel {
@@ -76,20 +84,138 @@ public final class KevinsQuantizationModel {
 
 
   static void crossesAt(int kappa, int k, int kFactor) {
-    int n = 0;
-    boolean cont = true;
-    while (cont) {
-      n++;
-      double prob = 1.0 - probCequalsN(1.0 * kFactor * k, n);
-      if (prob >= thresholds[kappa + 3]) {
-        String s = String.format("%d\t%d\t%.8f\t%.8f", kappa, n, prob, -1.0/n);
-        println(s);
-        cont = false;
+    final double bitmapSize = 1.0 * kFactor * k;
+    final int n = crossingN(kappa, bitmapSize);
+    final double prob = -Math.expm1(logProbNoCollision(bitmapSize, n));
+    String s = String.format("%d\t%d\t%.8f\t%.8f", kappa, n, prob, -1.0/n);
+    println(s);
+  }
+
+  /**
+   * Returns the smallest n such that the probability of at least one collision among n uniques
+   * in a bitmap of the given size reaches the threshold for kappa. That probability increases
+   * with n, so this gallops up in powers of two to bracket the crossing and then bisects, which
+   * takes about 2 log2(n) evaluations of logProbNoCollision instead of n.
+   *
+   * @param kappa number of standard deviations, -3 to 3
+   * @param bitmapSize number of bits in the bitmap, i.e., kFactor * k
+   * @return the smallest n at which the threshold is reached
+   */
+  static int crossingN(final int kappa, final double bitmapSize) {
+    final double threshold = thresholds[kappa + 3];
+    final int maxN = (int) Math.min(bitmapSize, Integer.MAX_VALUE);
+    int lo = 0; // largest n known to be below the threshold
+    int hi = 1;
+    while (!reachesThreshold(bitmapSize, hi, threshold)) {
+      lo = hi;
+      if (hi == maxN) {
+        throw new IllegalStateException("Threshold not reached by n = " + maxN);
+      }
+      hi = (int) Math.min(2L * hi, maxN);
+    }
+    while ((hi - lo) > 1) {
+      final int mid = (lo + hi) >>> 1;
+      if (reachesThreshold(bitmapSize, mid, threshold)) { hi = mid; } else { lo = mid; }
+    }
+    return hi;
+  }
+
+  // The original linear scan, kept to verify crossingN()
+  static int linearCrossingN(final int kappa, final double bitmapSize) {
+    int n = 1;
+    while (!reachesThreshold(bitmapSize, n, thresholds[kappa + 3])) { n++; }
+    return n;
+  }
+
+  private static boolean reachesThreshold(final double bitmapSize, final int n,
+      final double threshold) {
+    return -Math.expm1(logProbNoCollision(bitmapSize, n)) >= threshold;
+  }
+
+  static final double EXACT_SUM_MAX_SIZE = 1 << 16;
+
+  /**
+   * Returns ln Prob(C = n), the same quantity as log(probCequalsN(k, n)), computed without
+   * the cancellation of probCequalsN. That subtracts log-factorials of order k ln k, so for
+   * lgK near 30 its rounding error exceeds the change from one n to the next, and it is not
+   * even monotone in n. Here small bitmaps sum ln(1 - i/k) exactly, and large ones use the
+   * difference of the Stirling series for ln k! and ln (k-n)!, rearranged around log1p.
+   *
+   * @param bitmapSize size of bit-map sketch, k
+   * @param n input number of uniques
+   * @return ln of the probability that no collision occurs
+   */
+  static double logProbNoCollision(final double bitmapSize, final int n) {
+    final double m = bitmapSize - n;
+    if ((bitmapSize <= EXACT_SUM_MAX_SIZE) || (m < blnbt_lenf)) {
+      double sum = 0.0;
+      for (int i = 1; i < n; i++) { sum += Math.log1p(-i / bitmapSize); }
+      return sum;
+    }
+    final double k = bitmapSize;
+    return ((m + 0.5) * -Math.log1p(-n / k)) - n
+        - (n / (12.0 * k * m))
+        + (((1.0 / (m * m * m)) - (1.0 / (k * k * k))) / 360.0);
+  }
+
+  /**
+   * Returns the crossing n for all seven kappas, computed in parallel.
+   * @param lgK log2 of k
+   * @param kFactor bitmap bits per k
+   * @return the crossing n for kappa = -3 to 3
+   */
+  static int[] crossingNs(final int lgK, final int kFactor) {
+    final double bitmapSize = (double) kFactor * (1L << lgK);
+    return IntStream.rangeClosed(-3, 3).parallel()
+        .map(kappa -> crossingN(kappa, bitmapSize)).toArray();
+  }
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    if ((args.length == 1) && args[0].equals("verify")) {
+      verifySolver(30);
+      return;
+    }
+    final int lgKlo = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+    final int lgKhi = (args.length > 1) ? Integer.parseInt(args[1]) : 30;
+    final int[] kFactors = (args.length > 2)
+        ? IntStream.range(2, args.length).map(i -> Integer.parseInt(args[i])).toArray()
+        : new int[] {1, 2, 3};
+
+    final long startTime_ns = System.nanoTime();
+    final CollisionThresholdTable table = CollisionThresholdTable.compute(lgKlo, lgKhi, kFactors);
+    final long elapsed_ns = System.nanoTime() - startTime_ns;
+
+    System.out.print(table.toDelimitedString("\t"));
+    println(String.format("%d cells in %.3f s", ((lgKhi - lgKlo) + 1) * kFactors.length,
+        elapsed_ns / 1e9));
+  }
+
+  /**
+   * Checks crossingN() against the linear scan for every kappa, kFactor 1 to 3 and lgK 4 to
+   * lgKhi, and throws if any differ.
+   * @param lgKhi largest lgK to check
+   */
+  static void verifySolver(final int lgKhi) {
+    for (int lgK = 4; lgK <= lgKhi; lgK++) {
+      for (int kFactor = 1; kFactor <= 3; kFactor++) {
+        final double bitmapSize = (double) kFactor * (1L << lgK);
+        for (int kappa = -3; kappa <= 3; kappa++) {
+          final int fast = crossingN(kappa, bitmapSize);
+          final int slow = linearCrossingN(kappa, bitmapSize);
+          if (fast != slow) {
+            throw new IllegalStateException(String.format(
+                "lgK %d, kFactor %d, kappa %d: solver %d, linear %d",
+                lgK, kFactor, kappa, fast, slow));
+          }
+        }
       }
     }
+    println("crossingN matches the linear scan for lgK 4 to " + lgKhi);
   }
 
-  @Test
   public static void runTest() {
     int lgK = 26;
     int k = 1 << lgK;
@@ -102,7 +228,6 @@ public final class KevinsQuantizationModel {
     }
   }
 
-  @Test
   public static void runTest2() { //models the Druid HLL sketch
     int lgK = 11;
     int k = 1 << lgK;
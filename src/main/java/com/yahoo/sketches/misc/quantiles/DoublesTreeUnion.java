@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.quantiles;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import com.yahoo.memory.Memory;
+import com.yahoo.sketches.misc.TreeReduce;
+import com.yahoo.sketches.quantiles.DoublesSketch;
+import com.yahoo.sketches.quantiles.DoublesUnion;
+import com.yahoo.sketches.quantiles.UpdateDoublesSketch;
+
+/**
+ * Parallel pairwise (tree) reduction of many DoublesSketches with TreeReduce. Each run of inputs
+ * is folded into its own DoublesUnion, and the result of the right union of each split is
+ * merged into the left union.
+ *
+ * <p>Inputs may be serialized images instead of sketches. DoublesUnion.update(Memory) heapifies
+ * its argument; here each image is instead wrapped with DoublesSketch.wrap(), so the union reads
+ * the retained items straight from the image, which may be in direct memory. The wrapping is
+ * done by the leaf tasks, in parallel.
+ */
+final class DoublesTreeUnion {
+
+  private DoublesTreeUnion() {}
+
+  /**
+   * Unions the sketches on the given pool.
+   *
+   * @param sketches list of sketches to union
+   * @param maxK     the maxK of every union in the tree
+   * @param grain    the largest number of sketches folded sequentially by one task
+   * @param pool     ForkJoinPool on which to run the reduction
+   * @return the union of all the sketches
+   */
+  static UpdateDoublesSketch union(final List<? extends DoublesSketch> sketches, final int maxK,
+                                   final int grain, final ForkJoinPool pool) {
+    return pool.invoke(newTask(sketches, s -> s, maxK, grain)).getResultAndReset();
+  }
+
+  /**
+   * Unions serialized sketches on the given pool, wrapping each image rather than heapifying it.
+   *
+   * @param images   list of images of DoublesSketches, compact or updatable, on or off heap
+   * @param maxK     the maxK of every union in the tree
+   * @param grain    the largest number of images folded sequentially by one task
+   * @param pool     ForkJoinPool on which to run the reduction
+   * @return the union of all the images
+   */
+  static UpdateDoublesSketch unionImages(final List<? extends Memory> images, final int maxK,
+                                         final int grain, final ForkJoinPool pool) {
+    return pool.invoke(newTask(images, DoublesSketch::wrap, maxK, grain)).getResultAndReset();
+  }
+
+  private static <T> TreeReduce<DoublesUnion> newTask(final List<? extends T> inputs,
+      final Function<? super T, DoublesSketch> toSketch, final int maxK, final int grain) {
+    return new TreeReduce<>(inputs.size(), grain,
+        (lo, hi) -> {
+          final DoublesUnion union = DoublesUnion.builder().setMaxK(maxK).build();
+          for (int i = lo; i < hi; ++i) {
+            union.update(toSketch.apply(inputs.get(i)));
+          }
+          return union;
+        },
+        (left, right) -> {
+          // the right union is discarded, so its sketch can be merged without a copy
+          left.update(right.getResultAndReset());
+          return left;
+        });
+  }
+
+}
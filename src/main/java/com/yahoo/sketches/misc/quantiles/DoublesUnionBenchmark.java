@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.quantiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.yahoo.memory.Memory;
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.misc.BatchTimer;
+import com.yahoo.sketches.misc.LatencyHistogram;
+import com.yahoo.sketches.quantiles.DoublesSketch;
+import com.yahoo.sketches.quantiles.DoublesUnion;
+import com.yahoo.sketches.quantiles.UpdateDoublesSketch;
+
+/**
+ * Compares merging many DoublesSketches by a sequential fold into one DoublesUnion with the
+ * parallel tree reduction of DoublesTreeUnion, over a range of k, input counts and thread
+ * counts. Reports throughput in merges per second and the latency of a complete reduction (one
+ * query) in microseconds.
+ *
+ * <p>The inputs stand for per-host sketches with log-normally distributed numbers of values
+ * around 4k. They are merged in three forms:
+ * <ul>
+ * <li>heap: the sketch objects themselves</li>
+ * <li>heapify: compact images in direct memory, passed to DoublesUnion.update(Memory), which
+ * heapifies each one</li>
+ * <li>wrap: the same images, wrapped with DoublesSketch.wrap() and passed as sketches</li>
+ * </ul>
+ * A compact image holds its base buffer sorted, while an updatable sketch sorts a copy of its
+ * base buffer on every merge, so with these inputs the images merge about twice as fast as the
+ * heap sketches, whether heapified or wrapped.
+ *
+ * <p>Usage: DoublesUnionBenchmark [numQueries]
+ */
+public final class DoublesUnionBenchmark {
+  private static final String LS = System.getProperty("line.separator");
+  private static final int WARMUP_QUERIES = 5;
+  private static final long MAX_TOTAL_K = 1L << 24; // bounds k * numSketches, and so the heap
+  private static final int MAX_INPUT_N = 1 << 17;
+  private static final Random rand = new Random();
+
+  private DoublesUnionBenchmark() {}
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int numQueries = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+    final int[] kSet = {64, 256, 1024, 4096};
+    final int[] numSketchesSet = {1000, 10000};
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+    final LatencyHistogram queryHist = new LatencyHistogram();
+
+    System.out.println("Per-query latency (us), sequential fold vs. tree reduction, "
+        + numQueries + " queries after " + WARMUP_QUERIES + " warmup queries:");
+    System.out.printf("%-8s%10s%8s%10s%8s%16s" + LatencyHistogram.getQuantilesHeader(12) + LS,
+        "k", "sketches", "mode", "input", "threads", "merges/s");
+    for (int k : kSet) {
+      for (int numSketches : numSketchesSet) {
+        if (((long) k * numSketches) > MAX_TOTAL_K) {
+          continue;
+        }
+
+        final List<UpdateDoublesSketch> sketches = new ArrayList<>(numSketches);
+        long totalN = 0;
+        for (int i = 0; i < numSketches; ++i) {
+          final UpdateDoublesSketch sk = DoublesSketch.builder().setK(k).build();
+          final long n = Math.min(MAX_INPUT_N, Math.round(Math.exp(rand.nextGaussian()) * 4 * k));
+          for (long j = 0; j < n; ++j) { sk.update(rand.nextDouble()); }
+          sketches.add(sk);
+          totalN += n;
+        }
+
+        try (WritableDirectHandle handle
+            = WritableMemory.allocateDirect(totalImageBytes(sketches))) {
+          final List<Memory> images = putImages(sketches, handle.get());
+
+          for (final String input : new String[] {"heap", "heapify", "wrap"}) {
+            runQueries(sketches, images, input, k, 0, null, WARMUP_QUERIES, totalN, queryHist);
+            runQueries(sketches, images, input, k, 0, null, numQueries, totalN, queryHist);
+            System.out.printf("%-8d%10d%8s%10s%8d%,16.0f" + queryHist.toQuantilesString(12) + LS,
+                k, numSketches, "seq", input, 1, getMergesPerSec(numSketches, queryHist));
+          }
+
+          for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            // leave each thread several leaves so work stealing can balance the tree
+            final int grain = Math.max(1, numSketches / (threads * 8));
+            for (final String input : new String[] {"heap", "wrap"}) {
+              runQueries(sketches, images, input, k, grain, pool, WARMUP_QUERIES, totalN,
+                  queryHist);
+              runQueries(sketches, images, input, k, grain, pool, numQueries, totalN, queryHist);
+              System.out.printf("%-8d%10d%8s%10s%8d%,16.0f" + queryHist.toQuantilesString(12)
+                  + LS, k, numSketches, "tree", input, threads,
+                  getMergesPerSec(numSketches, queryHist));
+            }
+            pool.shutdown();
+          }
+        }
+      }
+    }
+  }
+
+  // Runs numQueries complete reductions, recording the latency of each in microseconds.
+  // A null pool selects the sequential fold.
+  private static void runQueries(final List<UpdateDoublesSketch> sketches,
+      final List<Memory> images, final String input, final int k, final int grain,
+      final ForkJoinPool pool, final int numQueries, final long totalN,
+      final LatencyHistogram queryHist) {
+    queryHist.reset();
+    for (int q = 0; q < numQueries; ++q) {
+      final long timeStart_ns = System.nanoTime();
+      final DoublesSketch result;
+      if (pool == null) {
+        final DoublesUnion union = DoublesUnion.builder().setMaxK(k).build();
+        switch (input) {
+          case "heap":
+            for (DoublesSketch sk : sketches) { union.update(sk); }
+            break;
+          case "heapify":
+            for (Memory mem : images) { union.update(mem); }
+            break;
+          default:
+            for (Memory mem : images) { union.update(DoublesSketch.wrap(mem)); }
+            break;
+        }
+        // as in DoublesTreeUnion, the union is discarded, so its sketch is taken without a copy
+        result = union.getResultAndReset();
+      } else {
+        result = input.equals("heap")
+            ? DoublesTreeUnion.union(sketches, k, grain, pool)
+            : DoublesTreeUnion.unionImages(images, k, grain, pool);
+      }
+      queryHist.record((System.nanoTime() - timeStart_ns) / 1000);
+      if (result.getN() != totalN) {
+        throw new IllegalStateException("Union has n = " + result.getN() + ", expected "
+            + totalN);
+      }
+      BatchTimer.consume(result.getQuantile(0.5));
+    }
+  }
+
+  private static long totalImageBytes(final List<UpdateDoublesSketch> sketches) {
+    long bytes = 0;
+    for (DoublesSketch sk : sketches) { bytes += sk.getCompactStorageBytes(); }
+    return bytes;
+  }
+
+  // Writes the compact image of every sketch into consecutive regions of mem
+  private static List<Memory> putImages(final List<UpdateDoublesSketch> sketches,
+                                        final WritableMemory mem) {
+    final List<Memory> images = new ArrayList<>(sketches.size());
+    long offset = 0;
+    for (UpdateDoublesSketch sk : sketches) {
+      final byte[] bytes = sk.compact().toByteArray();
+      mem.putByteArray(offset, bytes, 0, bytes.length);
+      images.add(mem.region(offset, bytes.length));
+      offset += bytes.length;
+    }
+    return images;
+  }
+
+  private static double getMergesPerSec(final int numSketches, final LatencyHistogram queryHist) {
+    return (numSketches * 1e6) / queryHist.getMean();
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.quantiles;
+
+import static com.yahoo.sketches.misc.BatchTimer.consume;
+import static com.yahoo.sketches.misc.BatchTimer.nsPerOp;
+
+import java.util.Random;
+
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.quantiles.DoublesSketch;
+import com.yahoo.sketches.quantiles.UpdateDoublesSketch;
+
+/**
+ * Measures the update and query latency of DoublesSketch over a range of k, with the sketch on
+ * the Java heap or in direct (off-heap) memory.
+ *
+ * <p>Update cost is the mean ns per update over whole streams of n random values into a fresh
+ * sketch, so it includes every base buffer sort and level propagation.
+ *
+ * <p>Queries run against one unchanged sketch of n values:
+ * <ul>
+ * <li>getQuantile() of one fraction</li>
+ * <li>getQuantiles() of NUM_FRACTIONS evenly spaced fractions, per call and per fraction</li>
+ * <li>the same NUM_FRACTIONS quantiles as repeated getQuantile() calls, which each rebuild the
+ * sorted view of the sketch, compared with the single batch call</li>
+ * <li>getCDF() and getPMF() with NUM_FRACTIONS split points</li>
+ * </ul>
+ *
+ * <p>Usage: QuantilesBenchmark [lgN] [lgK lo] [lgK hi], by default n = 2^20 and k = 32 to 32768.
+ */
+public final class QuantilesBenchmark {
+  private static final String LS = System.getProperty("line.separator");
+  private static final int WARMUP_STREAMS = 5;
+  private static final int NUM_STREAMS = 20;
+  private static final int NUM_FRACTIONS = 200;
+
+  private QuantilesBenchmark() {}
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int lgN = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+    final int lgKlo = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : 15;
+    final int n = 1 << lgN;
+
+    final Random rand = new Random(0);
+    final double[] values = new double[n];
+    for (int i = 0; i < n; ++i) { values[i] = rand.nextDouble(); }
+    final double[] fractions = evenlySpaced(NUM_FRACTIONS);
+
+    System.out.printf("n = %,d; ns per call unless noted, %d fractions or split points per batch"
+        + LS, n, NUM_FRACTIONS);
+    System.out.printf("%8s%8s%12s%14s%16s%14s%16s%10s%14s%14s" + LS, "k", "memory",
+        "ns/update", "getQuantile", "getQuantiles", "ns/fraction", "repeated single", "speedup",
+        "getCDF", "getPMF");
+    for (int lgK = lgKlo; lgK <= lgKhi; ++lgK) {
+      final int k = 1 << lgK;
+      for (final boolean direct : new boolean[] {false, true}) {
+        System.out.println(measure(k, direct, values, fractions));
+      }
+    }
+  }
+
+  private static String measure(final int k, final boolean direct, final double[] values,
+                                final double[] fractions) {
+    final int n = values.length;
+    final WritableDirectHandle handle = direct
+        ? WritableMemory.allocateDirect(DoublesSketch.getUpdatableStorageBytes(k, n)) : null;
+    try {
+      final WritableMemory mem = direct ? handle.get() : null;
+
+      for (int s = 0; s < WARMUP_STREAMS; ++s) { updateStream(k, mem, values); }
+      long update_ns = 0;
+      for (int s = 0; s < NUM_STREAMS; ++s) { update_ns += updateStream(k, mem, values); }
+      final double nsPerUpdate = update_ns / ((double) NUM_STREAMS * n);
+
+      final UpdateDoublesSketch sketch = newSketch(k, mem);
+      for (double v : values) { sketch.update(v); }
+      final double getQuantileNs = nsPerOp(() -> sketch.getQuantile(0.5));
+      final double getQuantilesNs = nsPerOp(() -> sketch.getQuantiles(fractions)[0]);
+      final double repeatedNs = nsPerOp(() -> {
+        double sum = 0;
+        for (double f : fractions) { sum += sketch.getQuantile(f); }
+        return sum;
+      });
+      // the values are uniform in [0, 1), so the fractions also serve as split points
+      final double getCdfNs = nsPerOp(() -> sketch.getCDF(fractions)[0]);
+      final double getPmfNs = nsPerOp(() -> sketch.getPMF(fractions)[0]);
+
+      return String.format("%,8d%8s%,12.1f%,14.0f%,16.0f%,14.1f%,16.0f%,10.1f%,14.0f%,14.0f", k,
+          direct ? "direct" : "heap", nsPerUpdate, getQuantileNs, getQuantilesNs,
+          getQuantilesNs / fractions.length, repeatedNs, repeatedNs / getQuantilesNs, getCdfNs,
+          getPmfNs);
+    } finally {
+      if (handle != null) { handle.close(); }
+    }
+  }
+
+  // Returns the time to feed all values to a fresh sketch
+  private static long updateStream(final int k, final WritableMemory mem,
+                                   final double[] values) {
+    final UpdateDoublesSketch sketch = newSketch(k, mem);
+    final long start_ns = System.nanoTime();
+    for (double v : values) { sketch.update(v); }
+    final long elapsed_ns = System.nanoTime() - start_ns;
+    consume(sketch.getRetainedItems());
+    return elapsed_ns;
+  }
+
+  private static UpdateDoublesSketch newSketch(final int k, final WritableMemory mem) {
+    return (mem == null)
+        ? DoublesSketch.builder().setK(k).build() : DoublesSketch.builder().setK(k).build(mem);
+  }
+
+  // Fractions strictly inside (0, 1), as used for split points
+  private static double[] evenlySpaced(final int num) {
+    final double[] fractions = new double[num];
+    for (int i = 0; i < num; ++i) { fractions[i] = (i + 1.0) / (num + 1.0); }
+    return fractions;
+  }
+
+}
@@ -0,0 +1,167 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static com.yahoo.sketches.misc.sampling.UpdateBenchmark.WARMUP_ITERS;
+
+import java.util.concurrent.CyclicBarrier;
+
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+
+/**
+ * Aggregate update throughput of a reservoir shared by many ingest threads: a single
+ * ReservoirLongsSketch behind one lock, against a StripedReservoirLongsSampler, for 1 thread up
+ * to twice the number of available processors. Every thread offers the same number of items,
+ * so ideal scaling shows as ops/s growing with the thread count up to the number of cores.
+ * The locked reservoir serializes every update; the striped sampler's threads share no mutable
+ * state while updating, so it should scale until memory bandwidth or the core count is reached.
+ *
+ * <p>The striped result also reports the time of getResult(), which unions one shard per thread.
+ */
+public class ConcurrentUpdateBenchmark {
+  private static final String LS = System.lineSeparator();
+  private static final long UPDATES_PER_THREAD = 1L << 20;
+
+  private static long sink = 0; // keeps results live so the update loops cannot be removed
+
+  /**
+   * A sampler under test, built fresh for each trial.
+   */
+  private interface Target {
+    void update(long item);
+
+    long getN();
+  }
+
+  private static final class LockedTarget implements Target {
+    private final ReservoirLongsSketch rls_;
+
+    LockedTarget(final int k) {
+      rls_ = ReservoirLongsSketch.newInstance(k);
+    }
+
+    @Override
+    public synchronized void update(final long item) {
+      rls_.update(item);
+    }
+
+    @Override
+    public synchronized long getN() {
+      return rls_.getN();
+    }
+  }
+
+  private static final class StripedTarget implements Target {
+    private final StripedReservoirLongsSampler sampler_;
+
+    StripedTarget(final int k) {
+      sampler_ = new StripedReservoirLongsSampler(k);
+    }
+
+    @Override
+    public void update(final long item) {
+      sampler_.update(item);
+    }
+
+    @Override
+    public long getN() {
+      return sampler_.getN();
+    }
+  }
+
+  /**
+   * Usage: ConcurrentUpdateBenchmark [numIters] [log2(k)] [max threads]
+   * @param args numIters followed by log2(k), and optionally the largest thread count to run
+   */
+  public static void main(final String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: ConcurrentUpdateBenchmark [numIters] [log2(k)] [max threads]");
+      return;
+    }
+    final int numIters = Integer.parseInt(args[0]);
+    final int k = 1 << Integer.parseInt(args[1]);
+    final int maxThreads = (args.length > 2) ? Integer.parseInt(args[2])
+        : 2 * Runtime.getRuntime().availableProcessors();
+
+    println("Running " + numIters + " measured iterations after " + WARMUP_ITERS
+        + " warmup iterations, k = " + k + ", " + UPDATES_PER_THREAD + " updates per thread,"
+        + " " + Runtime.getRuntime().availableProcessors() + " processors:");
+    println(String.format("%8s %16s %16s %10s %16s", "threads", "locked ops/s", "striped ops/s",
+        "speedup", "getResult us"));
+    for (int numThreads = 1; numThreads <= maxThreads; numThreads <<= 1) {
+      final double lockedOps = measureUpdates(numIters, numThreads, () -> new LockedTarget(k));
+      final double stripedOps = measureUpdates(numIters, numThreads, () -> new StripedTarget(k));
+      final double resultUs = measureGetResult(numIters, numThreads, k);
+      println(String.format("%8d %,16.0f %,16.0f %10.2f %,16.1f", numThreads, lockedOps,
+          stripedOps, stripedOps / lockedOps, resultUs));
+    }
+    if (sink == 42) { println(LS); } // make sure sink is read
+  }
+
+  @FunctionalInterface
+  private interface TargetFactory {
+    Target newTarget();
+  }
+
+  // Mean aggregate updates per second over numIters trials, each with a fresh target
+  private static double measureUpdates(final int numIters, final int numThreads,
+                                       final TargetFactory factory) throws Exception {
+    double sumOpsPerSec = 0;
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      final Target target = factory.newTarget();
+      final long elapsed_ns = runThreads(numThreads, target);
+      sink += target.getN();
+      if (iter >= 0) {
+        sumOpsPerSec += (numThreads * UPDATES_PER_THREAD * 1e9) / elapsed_ns;
+      }
+    }
+    return sumOpsPerSec / numIters;
+  }
+
+  // Mean time of StripedReservoirLongsSampler.getResult() after numThreads threads have ingested
+  private static double measureGetResult(final int numIters, final int numThreads, final int k)
+      throws Exception {
+    final StripedTarget target = new StripedTarget(k);
+    runThreads(numThreads, target);
+    long total_ns = 0;
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      final long startTime_ns = System.nanoTime();
+      final ReservoirLongsSketch result = target.sampler_.getResult();
+      final long elapsed_ns = System.nanoTime() - startTime_ns;
+      sink += result.getNumSamples();
+      if (iter >= 0) { total_ns += elapsed_ns; }
+    }
+    return total_ns / (numIters * 1e3);
+  }
+
+  /**
+   * Starts numThreads threads that each offer UPDATES_PER_THREAD distinct items to target, and
+   * returns the wall time from when all threads are released until the last one finishes.
+   */
+  private static long runThreads(final int numThreads, final Target target) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final long start = t * UPDATES_PER_THREAD;
+      threads[t] = new Thread(() -> {
+        try {
+          barrier.await();
+        } catch (final Exception e) {
+          throw new IllegalStateException(e);
+        }
+        for (long item = start; item < (start + UPDATES_PER_THREAD); ++item) {
+          target.update(item);
+        }
+      });
+      threads[t].start();
+    }
+    barrier.await();
+    final long startTime_ns = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.nanoTime() - startTime_ns;
+  }
+
+  private static void println(final String msg) {
+    System.out.println(msg);
+  }
+}
@@ -0,0 +1,79 @@
+package com.yahoo.sketches.misc.sampling;
+
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+
+/**
+ * Dense SampleHistogram with one long count per value, held in off-heap memory.
+ */
+final class DirectSampleHistogram extends SampleHistogram {
+  private final long range_;
+  private final WritableDirectHandle handle_;
+  private final WritableMemory mem_;
+
+  DirectSampleHistogram(final long range) {
+    range_ = range;
+    handle_ = WritableMemory.allocateDirect(range * Long.BYTES);
+    mem_ = handle_.get();
+    mem_.clear();
+  }
+
+  @Override
+  long getRange() {
+    return range_;
+  }
+
+  @Override
+  void increment(final long value) {
+    final long offset = checkValue(value) << 3;
+    mem_.putLong(offset, mem_.getLong(offset) + 1);
+  }
+
+  @Override
+  void add(final long value, final long count) {
+    final long offset = checkValue(value) << 3;
+    mem_.putLong(offset, mem_.getLong(offset) + count);
+  }
+
+  @Override
+  long getCount(final long value) {
+    return mem_.getLong(checkValue(value) << 3);
+  }
+
+  @Override
+  void forEachNonZero(final CountConsumer consumer) {
+    for (long value = 0; value < range_; ++value) {
+      final long count = mem_.getLong(value << 3);
+      if (count != 0) {
+        consumer.accept(value, count);
+      }
+    }
+  }
+
+  @Override
+  void merge(final SampleHistogram other) {
+    if (!(other instanceof DirectSampleHistogram) || (other.getRange() != range_)) {
+      super.merge(other);
+      return;
+    }
+    final WritableMemory otherMem = ((DirectSampleHistogram) other).mem_;
+    final long capBytes = range_ << 3;
+    for (long offset = 0; offset < capBytes; offset += Long.BYTES) {
+      mem_.putLong(offset, mem_.getLong(offset) + otherMem.getLong(offset));
+    }
+  }
+
+  @Override
+  public void close() {
+    handle_.close();
+  }
+
+  // Memory only asserts its bounds, so a bad value would otherwise write outside the counts
+  private long checkValue(final long value) {
+    if ((value < 0) || (value >= range_)) {
+      throw new IllegalArgumentException("value out of range: " + value);
+    }
+    return value;
+  }
+
+}
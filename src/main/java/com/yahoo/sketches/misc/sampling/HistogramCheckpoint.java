@@ -0,0 +1,212 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The partial result of one shard of a sharded entropy experiment: which iterations it covers,
+ * how many of them are done, and the histogram of their samples.
+ *
+ * <p>The binary form is little-endian: a fixed header followed by the (value, count) pair of
+ * every non-zero histogram entry, so the file size tracks the number of distinct values sampled
+ * rather than the range. Files are written to a sibling temporary file that is then moved over
+ * the target, so an interrupted write leaves the previous checkpoint intact.
+ */
+final class HistogramCheckpoint implements AutoCloseable {
+  private static final int MAGIC = 0x52534843; // "RSHC"
+  private static final int VERSION = 1;
+  private static final int BUFFER_BYTES = 1 << 16;
+  private static final int MAX_NAME_BYTES = 1 << 10;
+
+  final String experiment;
+  final int numIters;
+  final int numSketches;
+  final int maxK;
+  final long seed;
+  final int shardIdx;
+  final int numShards;
+  final int startIter;
+  final int endIter;
+  int itersDone;
+  final SampleHistogram histogram;
+
+  HistogramCheckpoint(final String experiment, final SamplingConfig sc, final long seed,
+                      final int shardIdx, final int numShards, final int startIter,
+                      final int endIter, final int itersDone, final SampleHistogram histogram) {
+    this(experiment, sc.getNumIters(), sc.getNumSketches(), sc.getMaxK(), seed, shardIdx,
+        numShards, startIter, endIter, itersDone, histogram);
+  }
+
+  private HistogramCheckpoint(final String experiment, final int numIters, final int numSketches,
+                              final int maxK, final long seed, final int shardIdx,
+                              final int numShards, final int startIter, final int endIter,
+                              final int itersDone, final SampleHistogram histogram) {
+    this.experiment = experiment;
+    this.numIters = numIters;
+    this.numSketches = numSketches;
+    this.maxK = maxK;
+    this.seed = seed;
+    this.shardIdx = shardIdx;
+    this.numShards = numShards;
+    this.startIter = startIter;
+    this.endIter = endIter;
+    this.itersDone = itersDone;
+    this.histogram = histogram;
+  }
+
+  boolean isComplete() {
+    return itersDone == (endIter - startIter);
+  }
+
+  /**
+   * @return true if both checkpoints come from the same experiment, configuration and seed
+   */
+  boolean isSameRun(final HistogramCheckpoint other) {
+    return experiment.equals(other.experiment)
+        && (numIters == other.numIters)
+        && (numSketches == other.numSketches)
+        && (maxK == other.maxK)
+        && (seed == other.seed)
+        && (histogram.getRange() == other.histogram.getRange());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s shard %d/%d iters [%d, %d): %d done", experiment, shardIdx,
+        numShards, startIter, endIter, itersDone);
+  }
+
+  @Override
+  public void close() {
+    histogram.close();
+  }
+
+  /**
+   * Writes this checkpoint to path, replacing any existing file only once the write is complete.
+   * @param path the checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  void write(final Path path) throws IOException {
+    final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      final byte[] name = experiment.getBytes(UTF_8);
+      if ((name.length == 0) || (name.length > MAX_NAME_BYTES)) {
+        throw new IllegalArgumentException("Experiment name must be 1 to " + MAX_NAME_BYTES
+            + " bytes: " + experiment);
+      }
+      buf.putInt(MAGIC).putInt(VERSION);
+      buf.putShort((short) name.length).put(name);
+      buf.putInt(numIters).putInt(numSketches).putInt(maxK).putLong(histogram.getRange());
+      buf.putLong(seed).putInt(shardIdx).putInt(numShards);
+      buf.putInt(startIter).putInt(endIter).putInt(itersDone);
+      buf.putLong(histogram.getNumNonZero());
+
+      final IOException[] failure = new IOException[1];
+      histogram.forEachNonZero((value, count) -> {
+        if (failure[0] != null) { return; }
+        try {
+          if (buf.remaining() < (2 * Long.BYTES)) { drain(ch, buf); }
+          buf.putLong(value).putLong(count);
+        } catch (final IOException e) {
+          failure[0] = e;
+        }
+      });
+      if (failure[0] != null) { throw failure[0]; }
+      drain(ch, buf);
+      ch.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a checkpoint. The caller owns the returned checkpoint and must close it.
+   * @param path the checkpoint file
+   * @return the checkpoint, with its histogram restored
+   * @throws IOException if the file cannot be read or is not a checkpoint
+   */
+  static HistogramCheckpoint read(final Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      buf.flip();
+      fill(ch, buf, 2 * Integer.BYTES + Short.BYTES);
+      if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION)) {
+        throw new IOException("Not a version " + VERSION + " histogram checkpoint: " + path);
+      }
+      final int nameBytes = buf.getShort() & 0xFFFF;
+      if ((nameBytes == 0) || (nameBytes > MAX_NAME_BYTES)) {
+        throw notACheckpoint(path, "experiment name of " + nameBytes + " bytes");
+      }
+      final byte[] name = new byte[nameBytes];
+      fill(ch, buf, name.length + (8 * Integer.BYTES) + (3 * Long.BYTES));
+      buf.get(name);
+      final int numIters = buf.getInt();
+      final int numSketches = buf.getInt();
+      final int maxK = buf.getInt();
+      final long range = buf.getLong();
+      final long seed = buf.getLong();
+      final int shardIdx = buf.getInt();
+      final int numShards = buf.getInt();
+      final int startIter = buf.getInt();
+      final int endIter = buf.getInt();
+      final int itersDone = buf.getInt();
+      final long numPairs = buf.getLong();
+      if ((range <= 0) || (numPairs < 0) || (numPairs > range)) {
+        throw notACheckpoint(path, "range " + range + " with " + numPairs + " values");
+      }
+      if ((startIter < 0) || (startIter > endIter) || (endIter > numIters) || (itersDone < 0)
+          || (itersDone > (endIter - startIter))) {
+        throw notACheckpoint(path, String.format("iterations [%d, %d) of %d with %d done",
+            startIter, endIter, numIters, itersDone));
+      }
+
+      final SampleHistogram hist = SampleHistogram.newInstance(range);
+      try {
+        for (long i = 0; i < numPairs; ++i) {
+          fill(ch, buf, 2 * Long.BYTES);
+          hist.add(buf.getLong(), buf.getLong());
+        }
+      } catch (final IllegalArgumentException e) {
+        hist.close();
+        throw notACheckpoint(path, e.getMessage());
+      } catch (final IOException | RuntimeException e) {
+        hist.close();
+        throw e;
+      }
+      return new HistogramCheckpoint(new String(name, UTF_8), numIters, numSketches, maxK, seed,
+          shardIdx, numShards, startIter, endIter, itersDone, hist);
+    }
+  }
+
+  private static IOException notACheckpoint(final Path path, final String detail) {
+    return new IOException("Not a valid histogram checkpoint: " + path + " (" + detail + ")");
+  }
+
+  private static void drain(final FileChannel ch, final ByteBuffer buf) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) { ch.write(buf); }
+    buf.clear();
+  }
+
+  // Makes at least numBytes readable in buf, which is kept in read mode
+  private static void fill(final FileChannel ch, final ByteBuffer buf, final int numBytes)
+      throws IOException {
+    if (buf.remaining() >= numBytes) { return; }
+    buf.compact();
+    while (buf.position() < numBytes) {
+      if (ch.read(buf) < 0) { throw new EOFException("Truncated histogram checkpoint"); }
+    }
+    buf.flip();
+  }
+
+}
@@ -0,0 +1,149 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yahoo.sketches.sampling.ReservoirItemsSketch;
+import com.yahoo.sketches.sampling.ReservoirItemsUnion;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+import com.yahoo.sketches.sampling.ReservoirLongsUnion;
+
+/**
+ * Iteration runners equivalent to ReservoirEntropy.runIterations() and runLongsIterations()
+ * that reuse their inputs across the iterations of a block instead of rebuilding them:
+ * <ul>
+ * <li>An input sketch whose range fits in its reservoir holds every value of its range and
+ * involves no randomness, so it is built once and passed to every union. Unions never modify
+ * their inputs.</li>
+ * <li>An input sketch that samples its range is reset and refed each iteration, which keeps its
+ * object and avoids regrowing its reservoir from scratch.</li>
+ * <li>On the items path, every input value is boxed once, so feeding a sketch allocates no
+ * Integers.</li>
+ * </ul>
+ * A new union is still built per iteration: the unions' reset() is package-private in
+ * sketches-core.
+ */
+final class PooledExperiment {
+  private PooledExperiment() {}
+
+  // Pooled equivalent of ReservoirEntropy.runIterations()
+  static void runIterations(final SamplingConfig sc, final int startIter, final int endIter,
+                            final SampleHistogram hist) {
+    final ItemsInputs inputs = new ItemsInputs(sc);
+    for (int i = startIter; i < endIter; ++i) {
+      for (int key : inputs.runIteration(i)) {
+        hist.increment(key);
+      }
+    }
+  }
+
+  // Pooled equivalent of ReservoirEntropy.runLongsIterations()
+  static void runLongsIterations(final SamplingConfig sc, final int startIter, final int endIter,
+                                 final SampleHistogram hist) {
+    final LongsInputs inputs = new LongsInputs(sc);
+    for (int i = startIter; i < endIter; ++i) {
+      for (long key : inputs.runIteration(i)) {
+        hist.increment(key);
+      }
+    }
+  }
+
+  private static final class ItemsInputs {
+    private final SamplingConfig sc_;
+    private final Integer[] values_;
+    private final int[] offsets_;
+    private final boolean[] isFixed_;
+    private final List<ReservoirItemsSketch<Integer>> sketches_;
+
+    ItemsInputs(final SamplingConfig sc) {
+      if (sc.getCumulativeRange() > (Integer.MAX_VALUE + 1L)) {
+        throw new IllegalArgumentException("Integer items cannot cover a cumulative range of "
+            + sc.getCumulativeRange() + "; use the longs path");
+      }
+      sc_ = sc;
+      values_ = new Integer[(int) sc.getCumulativeRange()];
+      for (int v = 0; v < values_.length; ++v) { values_[v] = v; }
+
+      final int numSketches = sc.getNumSketches();
+      offsets_ = new int[numSketches + 1];
+      isFixed_ = new boolean[numSketches];
+      sketches_ = new ArrayList<>(numSketches);
+      for (int i = 0; i < numSketches; ++i) {
+        final int k = sc.hasMultipleK() ? sc.getK(i) : sc.getK();
+        final long range = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
+        offsets_[i + 1] = (int) (offsets_[i] + range);
+        sketches_.add(ReservoirItemsSketch.newInstance(k));
+        isFixed_[i] = range <= k;
+        if (isFixed_[i]) { feed(i); }
+      }
+    }
+
+    Integer[] runIteration(final int iter) {
+      for (int i = 0; i < sketches_.size(); ++i) {
+        if (!isFixed_[i]) {
+          sketches_.get(i).reset();
+          feed(i);
+        }
+      }
+
+      final ReservoirItemsUnion<Integer> riu = ReservoirItemsUnion.newInstance(sc_.getMaxK());
+      for (int i = 0; i < sketches_.size(); ++i) {
+        riu.update(sketches_.get((iter + i) % sketches_.size()));
+      }
+      return riu.getResult().getSamples();
+    }
+
+    private void feed(final int sketchIdx) {
+      final ReservoirItemsSketch<Integer> ris = sketches_.get(sketchIdx);
+      for (int v = offsets_[sketchIdx]; v < offsets_[sketchIdx + 1]; ++v) {
+        ris.update(values_[v]);
+      }
+    }
+  }
+
+  private static final class LongsInputs {
+    private final SamplingConfig sc_;
+    private final long[] offsets_;
+    private final boolean[] isFixed_;
+    private final ReservoirLongsSketch[] sketches_;
+
+    LongsInputs(final SamplingConfig sc) {
+      sc_ = sc;
+      final int numSketches = sc.getNumSketches();
+      offsets_ = new long[numSketches + 1];
+      isFixed_ = new boolean[numSketches];
+      sketches_ = new ReservoirLongsSketch[numSketches];
+      for (int i = 0; i < numSketches; ++i) {
+        final int k = sc.hasMultipleK() ? sc.getK(i) : sc.getK();
+        final long range = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
+        offsets_[i + 1] = offsets_[i] + range;
+        sketches_[i] = ReservoirLongsSketch.newInstance(k);
+        isFixed_[i] = range <= k;
+        if (isFixed_[i]) { feed(i); }
+      }
+    }
+
+    long[] runIteration(final int iter) {
+      for (int i = 0; i < sketches_.length; ++i) {
+        if (!isFixed_[i]) {
+          sketches_[i].reset();
+          feed(i);
+        }
+      }
+
+      final ReservoirLongsUnion rlu = ReservoirLongsUnion.newInstance(sc_.getMaxK());
+      for (int i = 0; i < sketches_.length; ++i) {
+        rlu.update(sketches_[(iter + i) % sketches_.length]);
+      }
+      return rlu.getResult().getSamples();
+    }
+
+    private void feed(final int sketchIdx) {
+      final ReservoirLongsSketch rls = sketches_[sketchIdx];
+      for (long v = offsets_[sketchIdx]; v < offsets_[sketchIdx + 1]; ++v) {
+        rls.update(v);
+      }
+    }
+  }
+
+}
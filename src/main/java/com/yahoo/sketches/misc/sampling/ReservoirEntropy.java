@@ -1,11 +1,26 @@
 package com.yahoo.sketches.misc.sampling;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import com.yahoo.sketches.Util;
 import com.yahoo.sketches.sampling.ReservoirItemsSketch;
 import com.yahoo.sketches.sampling.ReservoirItemsUnion;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+import com.yahoo.sketches.sampling.ReservoirLongsUnion;
 
 public class ReservoirEntropy {
 
@@ -15,9 +30,16 @@ public class ReservoirEntropy {
    */
   public static void main(final String[] args) {
     //largeSketchEntropy();
+    //hugeRangeEntropy();
     sketchEntropy();
     unionEntropy();
     mismatchedKEntropy();
+    treeUnionEntropy();
+    stripedEntropy();
+    earlyStopEntropy();
+    seededEntropy();
+    //itemsVsLongs();
+    //pooledVsFresh();
   }
 
   /**
@@ -26,12 +48,12 @@ public class ReservoirEntropy {
   static void sketchEntropy() {
     final int numIter = 100000;
     final int k = 64;
-    final int valueRange = k * k;
+    final long valueRange = k * k;
     final SamplingConfig sc = new SamplingConfig(numIter, 1, k, valueRange);
-    final int[] histogram = runExperiment(sc);
-
-    System.out.println("sketch entropy result:");
-    System.out.println(printStats(histogram, sc));
+    try (SampleHistogram histogram = runParallelExperiment(sc)) {
+      System.out.println("sketch entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
   }
 
   /**
@@ -40,12 +62,30 @@ public class ReservoirEntropy {
   static void largeSketchEntropy() {
     final int numIter = 20000;
     final int k = 1 << 20;
-    final int valueRange = k << 3;
+    final long valueRange = k << 3;
     final SamplingConfig sc = new SamplingConfig(numIter, 1, k, valueRange);
-    final int[] histogram = runExperiment(sc);
+    try (SampleHistogram histogram = runParallelExperiment(sc)) {
+      System.out.println("large sketch entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
+  }
 
-    System.out.println("large sketch entropy result:");
-    System.out.println(printStats(histogram, sc));
+  /**
+   * Computes entropy of distribution over the union of sketches covering 2^32 values, which
+   * needs the longs path and a sparse histogram. Unless numIter * k is well above the range,
+   * most values are sampled at most once, so H is bounded by log2 of the number of samples
+   * rather than approaching Theo H.
+   */
+  static void hugeRangeEntropy() {
+    final int numIter = 100;
+    final int numSketches = 4;
+    final int k = 1 << 16;
+    final long valueRange = 1L << 30;
+    final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, valueRange);
+    try (SampleHistogram histogram = runParallelLongsExperiment(sc)) {
+      System.out.println("huge range entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
   }
 
   /**
@@ -58,52 +98,532 @@ public class ReservoirEntropy {
     final int numSketches = 13;
     final int k = 100;
     final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, k);
-    final int[] histogram = runExperiment(sc);
-
-    System.out.println("union entropy result:");
-    System.out.println(printStats(histogram, sc));
+    try (SampleHistogram histogram = runParallelExperiment(sc)) {
+      System.out.println("union entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
   }
 
   static void mismatchedKEntropy() {
     final int numIter = 100000;
     final int numSketches = 2;
     final int[] k = {128, 1024};
-    final int[] valueRange = {8192, 1024};
+    final long[] valueRange = {8192, 1024};
     final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, valueRange);
-    final int[] histogram = runExperiment(sc);
+    try (SampleHistogram histogram = runParallelExperiment(sc)) {
+      System.out.println("mismatched k entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
+  }
+
+  /**
+   * Computes entropy of distribution over the union of multiple sketches, merged by a pairwise
+   * tree reduction rather than a sequential fold. Every merge above the leaves combines two
+   * partial union results, so this checks that merging unions preserves uniformity.
+   */
+  static void treeUnionEntropy() {
+    final int numIter = 100000;
+    final int numSketches = 13;
+    final int k = 100;
+    final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, 2 * k);
+    try (SampleHistogram histogram = runParallelExperiment(sc, ForkJoinPool.commonPool(),
+                 ReservoirEntropy::runTreeUnionIterations)) {
+      System.out.println("tree union entropy result:");
+      System.out.println(printStats(histogram, sc));
+    }
+  }
+
+  /**
+   * Computes entropy of distribution over the result of a StripedReservoirLongsSampler fed by
+   * several threads at once, one per sketch in the config, each offering its own value range.
+   * The shards are unioned on demand, so this checks that the concurrent sampler's result is a
+   * uniform sample of everything offered.
+   */
+  static void stripedEntropy() {
+    final int numIter = 20000;
+    final int numThreads = 4;
+    final int k = 100;
+    final SamplingConfig sc = new SamplingConfig(numIter, numThreads, k, 2 * k);
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try (SampleHistogram histogram = SampleHistogram.newInstance(sc.getCumulativeRange())) {
+      runStripedIterations(sc, 0, sc.getNumIters(), histogram, executor);
+      System.out.println("striped sampler entropy result:");
+      System.out.println(printStats(histogram, sc));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // Runs iterations [startIter, endIter), each feeding a fresh striped sampler from executor
+  static void runStripedIterations(final SamplingConfig sc, final int startIter,
+                                   final int endIter, final SampleHistogram hist,
+                                   final ExecutorService executor) {
+    final List<Callable<Void>> feeders = new ArrayList<>(sc.getNumSketches());
+    for (int i = startIter; i < endIter; ++i) {
+      final StripedReservoirLongsSampler sampler = new StripedReservoirLongsSampler(sc.getMaxK());
+      feeders.clear();
+      long idx = 0;
+      for (int s = 0; s < sc.getNumSketches(); ++s) {
+        final long start = idx;
+        final long end = idx + sc.getRangeSize(sc.hasMultipleK() ? s : 0);
+        feeders.add(() -> {
+          for (long v = start; v < end; ++v) { sampler.update(v); }
+          return null;
+        });
+        idx = end;
+      }
+
+      try {
+        for (Future<Void> f : executor.invokeAll(feeders)) { f.get(); }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (final ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+
+      for (long key : sampler.getResult().getSamples()) {
+        hist.increment(key);
+      }
+    }
+  }
+
+  /**
+   * Runs the union experiment twice with the same seed through runSeededExperiment() and checks
+   * that the two histograms are identical.
+   */
+  static void seededEntropy() {
+    final int numIter = 10000;
+    final int numSketches = 13;
+    final int k = 100;
+    final long seed = 9001;
+    final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, 2 * k);
+    try (SampleHistogram first = runSeededExperiment(sc, seed, ReservoirEntropy::runIterations);
+         SampleHistogram second = runSeededExperiment(sc, seed, ReservoirEntropy::runIterations)) {
+      final long[] numDiffs = {first.getNumNonZero() == second.getNumNonZero() ? 0 : 1};
+      first.forEachNonZero((value, count) -> {
+        if (second.getCount(value) != count) { numDiffs[0]++; }
+      });
+      System.out.println("seeded union entropy result, seed " + seed + ", run twice:");
+      System.out.println("identical = " + (numDiffs[0] == 0));
+      System.out.println(printStats(first, sc));
+    }
+  }
+
+  /**
+   * Runs the union experiment only until the uniformity tests are conclusive, which takes a
+   * small fraction of the iterations that unionEntropy() spends.
+   */
+  static void earlyStopEntropy() {
+    final int maxIter = 100000;
+    final int numSketches = 13;
+    final int k = 100;
+    final SamplingConfig sc = new SamplingConfig(maxIter, numSketches, k, k);
+    System.out.println("early stop union entropy result:");
+    runUntilConclusive(sc, ReservoirEntropy::runIterations, 1000, 0.001, 0.05).close();
+  }
+
+  /**
+   * Runs an experiment in parallel blocks of doubling size, testing uniformity after each, and
+   * stops as soon as the result is conclusive at confidence 1 - alpha: either some test rejects
+   * uniformity, or every test passes and the count of every value is known to within a relative
+   * tolerance. The significance level is split evenly over the tests and the planned looks, so
+   * testing repeatedly does not inflate the false rejection rate. Prints one line per look,
+   * then the verdict and the statistics of all iterations run.
+   *
+   * @param sc        SamplingConfig object to use; its number of iterations is the maximum
+   * @param runner    runs a block of iterations into a histogram, e.g. runIterations
+   * @param firstLook number of iterations before the first test
+   * @param alpha     overall significance level
+   * @param tolerance relative resolution at which a passing run stops
+   * @return histogram of sampled values over the iterations actually run
+   */
+  static SampleHistogram runUntilConclusive(final SamplingConfig sc,
+                                            final IterationRunner runner, final int firstLook,
+                                            final double alpha, final double tolerance) {
+    int numLooks = 1;
+    for (long look = firstLook; look < sc.getNumIters(); look <<= 1) { ++numLooks; }
+
+    final SampleHistogram hist = SampleHistogram.newInstance(sc.getCumulativeRange());
+    final UniformityStats stats = new UniformityStats(hist, 0);
+    final double alphaPerTest = alpha / (numLooks * stats.getNumTests());
+    System.out.println(String.format("%10s %12s %12s %12s %12s  (reject at p < %.3g)",
+            "iters", "chi2 p", "KS p", "max|z| p", "resolution", alphaPerTest));
+
+    int done = 0;
+    int next = Math.min(firstLook, sc.getNumIters());
+    String verdict = "Inconclusive";
+    while ((done < sc.getNumIters()) && verdict.equals("Inconclusive")) {
+      try (SampleHistogram block = runParallelExperiment(sc, done, next,
+              ForkJoinPool.commonPool(), runner)) {
+        stats.merge(block, next - done);
+      }
+      done = next;
+      next = (int) Math.min(2L * next, sc.getNumIters());
+
+      final double resolution = stats.getResolution(alpha);
+      System.out.println(String.format("%10d %12.4g %12.4g %12.4g %12.4f", done,
+              stats.getChiSquarePValue(), stats.getKsPValue(), stats.getMaxAbsZPValue(),
+              resolution));
+      if (stats.getMinPValue() < alphaPerTest) {
+        verdict = "NOT UNIFORM";
+      } else if (resolution <= tolerance) {
+        verdict = "Uniform to within " + tolerance;
+      }
+    }
+    System.out.println(verdict + " after " + done + " iterations");
+    System.out.println(printStats(hist, sc.withNumIters(done)));
+    return hist;
+  }
+
+  /**
+   * Runs the same union experiment through ReservoirItemsSketch&lt;Integer&gt; and through
+   * ReservoirLongsSketch, serially on the calling thread, and reports the wall time and bytes
+   * allocated by each next to their statistics. The two histograms should be statistically
+   * indistinguishable.
+   */
+  static void itemsVsLongs() {
+    final int numIter = 5000;
+    final int numSketches = 13;
+    final int k = 1024;
+    final SamplingConfig sc = new SamplingConfig(numIter, numSketches, k, 4 * k);
+
+    final SamplingConfig warmupSc = new SamplingConfig(numIter / 10, numSketches, k, 4 * k);
+    runExperiment(warmupSc).close();
+    runLongsExperiment(warmupSc).close();
+
+    long startBytes = getThreadAllocatedBytes();
+    long startTime_ns = System.nanoTime();
+    try (SampleHistogram itemsHist = runExperiment(sc)) {
+      final long itemsTime_ns = System.nanoTime() - startTime_ns;
+      final long itemsBytes = getThreadAllocatedBytes() - startBytes;
+
+      startBytes = getThreadAllocatedBytes();
+      startTime_ns = System.nanoTime();
+      try (SampleHistogram longsHist = runLongsExperiment(sc)) {
+        final long longsTime_ns = System.nanoTime() - startTime_ns;
+        final long longsBytes = getThreadAllocatedBytes() - startBytes;
+
+        System.out.println("items vs longs result:");
+        System.out.println("ReservoirItemsSketch<Integer>:" + Util.LS
+                + timeAndAllocString(itemsTime_ns, itemsBytes)
+                + printStats(itemsHist, sc));
+        System.out.println("ReservoirLongsSketch:" + Util.LS
+                + timeAndAllocString(longsTime_ns, longsBytes)
+                + printStats(longsHist, sc));
+      }
+    }
+  }
+
+  /**
+   * Runs two union experiments, one whose inputs are all exact and one whose inputs sample
+   * their ranges, serially with fresh inputs per iteration and with PooledExperiment, and
+   * reports wall time, bytes allocated and garbage collections of each next to their statistics.
+   * Each pair of histograms should be statistically indistinguishable.
+   */
+  static void pooledVsFresh() {
+    final int numIter = 20000;
+    final int numSketches = 13;
+    final int k = 100;
+    final SamplingConfig[] configs = {new SamplingConfig(numIter, numSketches, k, k),
+        new SamplingConfig(numIter, numSketches, k, 8 * k)};
+
+    for (SamplingConfig sc : configs) {
+      final SamplingConfig warmupSc = sc.withNumIters(numIter / 10);
+      runExperiment(warmupSc).close();
+      runPooledExperiment(warmupSc).close();
+
+      System.out.println("pooled vs fresh result, range per sketch = " + sc.getRangeSize()
+          + ":");
+      final long[] gcStart = getGcCountAndTime();
+      long startBytes = getThreadAllocatedBytes();
+      long startTime_ns = System.nanoTime();
+      try (SampleHistogram freshHist = runExperiment(sc)) {
+        final long freshTime_ns = System.nanoTime() - startTime_ns;
+        final long freshBytes = getThreadAllocatedBytes() - startBytes;
+        final long[] gcMid = getGcCountAndTime();
+
+        startBytes = getThreadAllocatedBytes();
+        startTime_ns = System.nanoTime();
+        try (SampleHistogram pooledHist = runPooledExperiment(sc)) {
+          final long pooledTime_ns = System.nanoTime() - startTime_ns;
+          final long pooledBytes = getThreadAllocatedBytes() - startBytes;
+          final long[] gcEnd = getGcCountAndTime();
+
+          System.out.println("fresh inputs:" + Util.LS
+                  + timeAndAllocString(freshTime_ns, freshBytes)
+                  + gcString(gcStart, gcMid)
+                  + printStats(freshHist, sc));
+          System.out.println("pooled inputs:" + Util.LS
+                  + timeAndAllocString(pooledTime_ns, pooledBytes)
+                  + gcString(gcMid, gcEnd)
+                  + printStats(pooledHist, sc));
+        }
+      }
+    }
+  }
+
+  static SampleHistogram runPooledExperiment(final SamplingConfig sc) {
+    final SampleHistogram hist = SampleHistogram.newInstance(sc.getCumulativeRange());
+    PooledExperiment.runIterations(sc, 0, sc.getNumIters(), hist);
+    return hist;
+  }
+
+  // Total collections and collection time in ms, over all collectors
+  private static long[] getGcCountAndTime() {
+    final long[] countAndTime = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      countAndTime[0] += Math.max(0, gc.getCollectionCount());
+      countAndTime[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return countAndTime;
+  }
+
+  private static String gcString(final long[] start, final long[] end) {
+    return String.format("gc     = %d collections, %d ms" + Util.LS, end[0] - start[0],
+            end[1] - start[1]);
+  }
+
+  private static String timeAndAllocString(final long time_ns, final long bytes) {
+    final double timeSec = time_ns / 1e9;
+    return String.format("time   = %.3f s" + Util.LS
+            + "alloc  = %,d bytes (%.1f MB/s)" + Util.LS,
+            timeSec, bytes, bytes / (timeSec * (1 << 20)));
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread, or -1 if the JVM does not
+   * support allocation accounting.
+   * @return bytes allocated by the current thread
+   */
+  static long getThreadAllocatedBytes() {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+              Thread.currentThread().getId());
+    }
+    return -1;
+  }
 
-    System.out.println("mismatched k entropy result:");
-    System.out.println(printStats(histogram, sc));
+  static SampleHistogram runExperiment(final SamplingConfig sc) {
+    final SampleHistogram hist = SampleHistogram.newInstance(sc.getCumulativeRange());
+    runIterations(sc, 0, sc.getNumIters(), hist);
+    return hist;
+  }
+
+  /**
+   * Runs the same experiment as runExperiment(), but splits the iterations across the common
+   * fork-join pool.
+   *
+   * @param sc SamplingConfig object to use
+   * @return histogram of sampled values, summed over all iterations
+   */
+  static SampleHistogram runParallelExperiment(final SamplingConfig sc) {
+    return runParallelExperiment(sc, ForkJoinPool.commonPool(), ReservoirEntropy::runIterations);
+  }
+
+  /**
+   * Parallel version of runLongsExperiment() on the common fork-join pool.
+   *
+   * @param sc SamplingConfig object to use
+   * @return histogram of sampled values, summed over all iterations
+   */
+  static SampleHistogram runParallelLongsExperiment(final SamplingConfig sc) {
+    return runParallelExperiment(sc, ForkJoinPool.commonPool(),
+            ReservoirEntropy::runLongsIterations);
+  }
+
+  /**
+   * Runs the same experiment as runExperiment(), but splits the iterations across the given
+   * pool. Each leaf task runs a contiguous block of iterations into the histogram of the worker
+   * thread it runs on, so at most one histogram per worker is allocated however many leaves there
+   * are, and the worker histograms are summed at the end. The worker histograms share a budget of
+   * WORKER_HISTS_MAX_BYTES of dense counts; if one dense histogram per worker would exceed it,
+   * the workers use sparse histograms instead. The split points depend only on the
+   * number of iterations and the pool parallelism, and iteration <i>i</i> always starts its union
+   * at sketch <i>i</i>, exactly as in the serial runner.
+   *
+   * <p>The samples themselves are not reproducible, and cannot be seeded per worker or per leaf:
+   * every reservoir sketch and union in sketches-core draws from one static generator shared by
+   * the whole JVM, in whatever order the workers reach it, and there is no way to give a worker a
+   * generator of its own. Reseeding it per leaf would only be reproducible if the leaves ran one
+   * at a time. Use runSeededExperiment() for a reproducible run on one core, or
+   * ShardedEntropyRunner with one process per shard for a reproducible run on many.
+   *
+   * @param sc     SamplingConfig object to use
+   * @param pool   ForkJoinPool on which to run the iterations
+   * @param runner runs a block of iterations into a histogram, e.g. runIterations
+   * @return histogram of sampled values, summed over all iterations
+   */
+  static SampleHistogram runParallelExperiment(final SamplingConfig sc, final ForkJoinPool pool,
+                                               final IterationRunner runner) {
+    return runParallelExperiment(sc, 0, sc.getNumIters(), pool, runner);
+  }
+
+  // Same as above, but for iterations [startIter, endIter) only
+  static SampleHistogram runParallelExperiment(final SamplingConfig sc, final int startIter,
+                                               final int endIter, final ForkJoinPool pool,
+                                               final IterationRunner runner) {
+    final int numLeaves = pool.getParallelism() * LEAVES_PER_THREAD;
+    final int grain = Math.max(1, ((endIter - startIter) + numLeaves - 1) / numLeaves);
+    final long maxDenseBytes = WORKER_HISTS_MAX_BYTES / pool.getParallelism();
+    final Map<Thread, SampleHistogram> workerHists = new ConcurrentHashMap<>();
+    try {
+      pool.invoke(new ExperimentTask(sc, startIter, endIter, grain, maxDenseBytes, runner,
+          workerHists));
+      final Iterator<SampleHistogram> it = workerHists.values().iterator();
+      if (!it.hasNext()) {
+        return SampleHistogram.newInstance(sc.getCumulativeRange());
+      }
+      final SampleHistogram hist = it.next();
+      it.remove();
+      try {
+        while (it.hasNext()) { hist.merge(it.next()); }
+      } catch (final RuntimeException e) {
+        hist.close();
+        throw e;
+      }
+      return hist;
+    } finally {
+      for (SampleHistogram h : workerHists.values()) { h.close(); }
+    }
   }
 
-  static int[] runExperiment(final SamplingConfig sc) {
-    final int[] hist = new int[sc.getCumulativeRange()];
+  private static final int LEAVES_PER_THREAD = 4;
+  // Dense bytes of counts shared by all worker histograms of one parallel run
+  static final long WORKER_HISTS_MAX_BYTES = SampleHistogram.DENSE_MAX_BYTES;
 
-    for (int i = 0; i < sc.getNumIters(); ++i) {
+  /**
+   * Reproducible version of runParallelExperiment(). Runs the iterations one at a time on a
+   * single fork-join worker, and before each one reseeds the generator shared by all reservoir
+   * sketches and unions from the seed and the iteration index, as ShardedEntropyRunner does. The
+   * same seed always gives the same histogram, which also equals the merge of a sharded run with
+   * that seed. The generator is shared by the whole JVM, so the iterations cannot run in parallel
+   * and nothing else may sample meanwhile; to use more cores, run shards of it in separate
+   * processes with ShardedEntropyRunner.
+   *
+   * @param sc     SamplingConfig object to use
+   * @param seed   seed of the run
+   * @param runner runs a block of iterations into a histogram, e.g. runIterations
+   * @return histogram of sampled values, summed over all iterations
+   */
+  static SampleHistogram runSeededExperiment(final SamplingConfig sc, final long seed,
+                                             final IterationRunner runner) {
+    final SampleHistogram hist = SampleHistogram.newInstance(sc.getCumulativeRange());
+    // one worker, so even forked subtasks draw from the generator in a fixed order
+    final ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      for (int i = 0; i < sc.getNumIters(); ++i) {
+        final int iter = i;
+        ShardedEntropyRunner.seedIteration(seed, iter);
+        pool.invoke(ForkJoinTask.adapt(() -> runner.run(sc, iter, iter + 1, hist)));
+      }
+    } catch (final RuntimeException e) {
+      hist.close();
+      throw e;
+    } finally {
+      pool.shutdown();
+    }
+    return hist;
+  }
+
+  /**
+   * Runs iterations [startIter, endIter) of an experiment, adding the samples of each
+   * iteration into hist.
+   */
+  @FunctionalInterface
+  interface IterationRunner {
+    void run(SamplingConfig sc, int startIter, int endIter, SampleHistogram hist);
+  }
+
+  // Runs iterations [startIter, endIter), adding the union output of each into hist
+  static void runIterations(final SamplingConfig sc, final int startIter, final int endIter,
+                            final SampleHistogram hist) {
+    for (int i = startIter; i < endIter; ++i) {
       //if (i > 0 && i % 100 == 0) { System.err.println("Iter " + i); }
       final List<ReservoirItemsSketch<Integer>> sketchList = generateSketches(sc);
 
       final Integer[] out = unionSketchList(sketchList, i, sc);
 
       for (int key : out) {
-        ++hist[key];
+        hist.increment(key);
       }
     }
+  }
 
-    return hist;
+  // Same as runIterations(), but merges each iteration's sketches with a pairwise tree
+  static void runTreeUnionIterations(final SamplingConfig sc, final int startIter,
+                                     final int endIter, final SampleHistogram hist) {
+    for (int i = startIter; i < endIter; ++i) {
+      final List<ReservoirItemsSketch<Integer>> sketchList = generateSketches(sc);
+
+      final Integer[] out
+              = ReservoirTreeUnion.union(sketchList, i, sc.getMaxK(), 1).getSamples();
+
+      for (int key : out) {
+        hist.increment(key);
+      }
+    }
+  }
+
+  private static final class ExperimentTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SamplingConfig sc_;
+    private final int startIter_;
+    private final int endIter_;
+    private final int grain_;
+    private final long maxDenseBytes_;
+    private final IterationRunner runner_;
+    // one histogram per worker thread, only ever updated by that thread
+    private final Map<Thread, SampleHistogram> workerHists_;
+
+    ExperimentTask(final SamplingConfig sc, final int startIter, final int endIter,
+                   final int grain, final long maxDenseBytes, final IterationRunner runner,
+                   final Map<Thread, SampleHistogram> workerHists) {
+      sc_ = sc;
+      startIter_ = startIter;
+      endIter_ = endIter;
+      grain_ = grain;
+      maxDenseBytes_ = maxDenseBytes;
+      runner_ = runner;
+      workerHists_ = workerHists;
+    }
+
+    @Override
+    protected void compute() {
+      if ((endIter_ - startIter_) <= grain_) {
+        final SampleHistogram hist = workerHists_.computeIfAbsent(Thread.currentThread(),
+            t -> SampleHistogram.newInstance(sc_.getCumulativeRange(), maxDenseBytes_));
+        runner_.run(sc_, startIter_, endIter_, hist);
+        return;
+      }
+
+      final int midIter = (startIter_ + endIter_) >>> 1;
+      invokeAll(
+          new ExperimentTask(sc_, startIter_, midIter, grain_, maxDenseBytes_, runner_,
+              workerHists_),
+          new ExperimentTask(sc_, midIter, endIter_, grain_, maxDenseBytes_, runner_,
+              workerHists_));
+    }
   }
 
   // Creates a list of sketches with non-overlapping value ranges.
   static List<ReservoirItemsSketch<Integer>> generateSketches(final SamplingConfig sc) {
     final List<ReservoirItemsSketch<Integer>> sketchList = new ArrayList<>(sc.getNumSketches());
 
+    if (sc.getCumulativeRange() > (Integer.MAX_VALUE + 1L)) {
+      throw new IllegalArgumentException("Integer items cannot cover a cumulative range of "
+          + sc.getCumulativeRange() + "; use the longs path");
+    }
+
     int idx = 0;
     for (int i = 0; i < sc.getNumSketches(); ++i) {
       final int k = sc.hasMultipleK() ? sc.getKArray()[i] : sc.getK();
-      final int rangeMax = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
+      final long rangeMax = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
 
       final ReservoirItemsSketch<Integer> ris = ReservoirItemsSketch.newInstance(k);
-      for (int j = 0; j < rangeMax; ++j) {
+      for (long j = 0; j < rangeMax; ++j) {
         ris.update(idx++);
       }
 
@@ -113,40 +633,89 @@ public class ReservoirEntropy {
     return sketchList;
   }
 
-  static String printStats(final int[] histogram, final SamplingConfig sc) {
-    int min = Integer.MAX_VALUE;
-    int max = Integer.MIN_VALUE;
-    long outputCount = 0;
+  /**
+   * Equivalent of runExperiment() using ReservoirLongsSketch and ReservoirLongsUnion, which
+   * avoids boxing every input value and every sample.
+   *
+   * @param sc SamplingConfig object to use
+   * @return histogram of sampled values, summed over all iterations
+   */
+  static SampleHistogram runLongsExperiment(final SamplingConfig sc) {
+    final SampleHistogram hist = SampleHistogram.newInstance(sc.getCumulativeRange());
+    runLongsIterations(sc, 0, sc.getNumIters(), hist);
+    return hist;
+  }
+
+  // Runs iterations [startIter, endIter) on the longs path, adding the output of each into hist
+  static void runLongsIterations(final SamplingConfig sc, final int startIter, final int endIter,
+                                 final SampleHistogram hist) {
+    for (int i = startIter; i < endIter; ++i) {
+      final List<ReservoirLongsSketch> sketchList = generateLongsSketches(sc);
+
+      final long[] out = unionLongsSketchList(sketchList, i, sc);
 
-    for (int i = 0; i < histogram.length; ++i) {
-      final int val = histogram[i];
-      //System.out.printf("[%d]: %d\n", i, histogram[i]);
-      if (val < min) {
-        min = val;
+      for (long key : out) {
+        hist.increment(key);
       }
-      if (val > max) {
-        max = val;
+    }
+  }
+
+  // Same as generateSketches(), but with ReservoirLongsSketch.
+  static List<ReservoirLongsSketch> generateLongsSketches(final SamplingConfig sc) {
+    final List<ReservoirLongsSketch> sketchList = new ArrayList<>(sc.getNumSketches());
+
+    long idx = 0;
+    for (int i = 0; i < sc.getNumSketches(); ++i) {
+      final int k = sc.hasMultipleK() ? sc.getKArray()[i] : sc.getK();
+      final long rangeMax = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
+
+      final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(k);
+      for (long j = 0; j < rangeMax; ++j) {
+        rls.update(idx++);
       }
-      outputCount += val;
+
+      sketchList.add(rls);
     }
 
-    return "H      = " + computeEntropy(outputCount, histogram) + Util.LS
+    return sketchList;
+  }
+
+  static String printStats(final SampleHistogram histogram, final SamplingConfig sc) {
+    final long[] minMaxCount = {Long.MAX_VALUE, Long.MIN_VALUE, 0};
+
+    histogram.forEachNonZero((value, count) -> {
+      //System.out.printf("[%d]: %d\n", value, count);
+      if (count < minMaxCount[0]) {
+        minMaxCount[0] = count;
+      }
+      if (count > minMaxCount[1]) {
+        minMaxCount[1] = count;
+      }
+      minMaxCount[2] += count;
+    });
+    final long numNonZero = histogram.getNumNonZero();
+    final long min = (numNonZero < histogram.getRange()) ? 0 : minMaxCount[0];
+    final long max = (numNonZero == 0) ? 0 : minMaxCount[1];
+
+    return "H      = " + computeEntropy(minMaxCount[2], histogram) + Util.LS
             + "Theo H = " + (Math.log(countPossibleValues(sc)) / Math.log(2.0)) + Util.LS
             + "min    = " + min + Util.LS
-            + "max    = " + max + Util.LS;
+            + "max    = " + max + Util.LS
+            + new UniformityStats(histogram, sc.getNumIters()).getStatsString();
   }
 
-  static double computeEntropy(final long denom, final int[] data) {
-    double H = 0.0;
+  // Values with a zero count contribute nothing to the entropy, so only non-zero counts are read
+  static double computeEntropy(final long denom, final SampleHistogram data) {
+    final double[] H = {0.0};
     final double scaleFactor = 1.0 / denom;
     final double INV_LN_2 = 1.0 / Math.log(2.0);
 
-    for (int count : data) {
+    data.forEachNonZero((value, count) -> {
       final double p = count * scaleFactor;
-      H -= p * Math.log(p) * INV_LN_2;
-    }
+      H[0] -= p * Math.log(p) * INV_LN_2;
+    });
 
-    return H;
+    return H[0];
   }
 
   /**
@@ -172,11 +741,32 @@ public class ReservoirEntropy {
     return riu.getResult().getSamples();
   }
 
+  /**
+   * Same as unionSketchList(), but with ReservoirLongsUnion.
+   *
+   * @param sketches List of sketches to use
+   * @param stIdx    Starting index in the list
+   * @param sc       SamplingConfig object to use
+   * @return Array of samples selected by the union
+   */
+  static long[] unionLongsSketchList(final List<ReservoirLongsSketch> sketches,
+                                     final int stIdx,
+                                     final SamplingConfig sc) {
+    final ReservoirLongsUnion rlu = ReservoirLongsUnion.newInstance(sc.getMaxK());
+
+    for (int i = 0; i < sketches.size(); ++i) {
+      final int sketchIdx = (stIdx + i) % sc.getNumSketches();
+      rlu.update(sketches.get(sketchIdx));
+    }
+
+    return rlu.getResult().getSamples();
+  }
+
   // Sum of all ranges
-  static int countPossibleValues(final SamplingConfig sc) {
+  static long countPossibleValues(final SamplingConfig sc) {
     if (sc.getRangeSizeArray().length > 1) {
-      int total = 0;
-      for (int val : sc.getRangeSizeArray()) {
+      long total = 0;
+      for (long val : sc.getRangeSizeArray()) {
         total += val;
       }
       return total;
@@ -0,0 +1,70 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.yahoo.sketches.misc.TreeReduce;
+import com.yahoo.sketches.sampling.ReservoirItemsSketch;
+import com.yahoo.sketches.sampling.ReservoirItemsUnion;
+
+/**
+ * Parallel pairwise (tree) reduction of a list of reservoir sketches with TreeReduce. Each run
+ * of sketches is folded into its own ReservoirItemsUnion, and the result of the right union of
+ * each split is merged into the left union.
+ */
+final class ReservoirTreeUnion {
+
+  private ReservoirTreeUnion() {}
+
+  /**
+   * Unions the sketches on the given pool.
+   *
+   * @param sketches List of sketches to union
+   * @param stIdx    Starting index in the list, as in ReservoirEntropy.unionSketchList()
+   * @param maxK     the k of every union in the tree
+   * @param grain    the largest number of sketches folded sequentially by one task
+   * @param pool     ForkJoinPool on which to run the reduction
+   * @param <T>      Type of item in the sketches
+   * @return the union of all the sketches
+   */
+  static <T> ReservoirItemsSketch<T> union(final List<ReservoirItemsSketch<T>> sketches,
+                                           final int stIdx, final int maxK, final int grain,
+                                           final ForkJoinPool pool) {
+    return pool.invoke(newTask(sketches, stIdx, maxK, grain)).getResult();
+  }
+
+  /**
+   * Unions the sketches in the current fork-join context: on the current pool if called from a
+   * ForkJoinPool worker, otherwise on the common pool.
+   *
+   * @param sketches List of sketches to union
+   * @param stIdx    Starting index in the list
+   * @param maxK     the k of every union in the tree
+   * @param grain    the largest number of sketches folded sequentially by one task
+   * @param <T>      Type of item in the sketches
+   * @return the union of all the sketches
+   */
+  static <T> ReservoirItemsSketch<T> union(final List<ReservoirItemsSketch<T>> sketches,
+                                           final int stIdx, final int maxK, final int grain) {
+    return newTask(sketches, stIdx, maxK, grain).invoke().getResult();
+  }
+
+  private static <T> TreeReduce<ReservoirItemsUnion<T>> newTask(
+      final List<ReservoirItemsSketch<T>> sketches, final int stIdx, final int maxK,
+      final int grain) {
+    final int numSketches = sketches.size();
+    return new TreeReduce<>(numSketches, grain,
+        (lo, hi) -> {
+          final ReservoirItemsUnion<T> riu = ReservoirItemsUnion.newInstance(maxK);
+          for (int i = lo; i < hi; ++i) {
+            riu.update(sketches.get((stIdx + i) % numSketches));
+          }
+          return riu;
+        },
+        (left, right) -> {
+          left.update(right.getResult());
+          return left;
+        });
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.yahoo.sketches.misc.sampling;
+
+/**
+ * A histogram of how often each value in [0, range) was sampled, with long counts.
+ *
+ * <p>Ranges up to DENSE_MAX_BYTES / 8 values use a dense array of counts in off-heap memory.
+ * Larger ranges use a sparse hash map that holds only the values actually sampled. Instances
+ * must be closed to release any off-heap memory.
+ */
+abstract class SampleHistogram implements AutoCloseable {
+  /** Largest dense histogram, in bytes of counts. Larger ranges use the sparse form. */
+  static final long DENSE_MAX_BYTES = 1L << 30;
+
+  /**
+   * Receives one (value, count) pair of a histogram.
+   */
+  @FunctionalInterface
+  interface CountConsumer {
+    void accept(long value, long count);
+  }
+
+  /**
+   * Returns a new, empty histogram over [0, range), dense or sparse depending on the range.
+   * @param range the number of possible values
+   * @return a new histogram
+   */
+  static SampleHistogram newInstance(final long range) {
+    return newInstance(range, DENSE_MAX_BYTES);
+  }
+
+  /**
+   * Returns a new, empty histogram over [0, range), dense if its counts fit in maxDenseBytes and
+   * sparse otherwise.
+   * @param range the number of possible values
+   * @param maxDenseBytes largest dense histogram to allocate, in bytes of counts
+   * @return a new histogram
+   */
+  static SampleHistogram newInstance(final long range, final long maxDenseBytes) {
+    if (range <= 0) {
+      throw new IllegalArgumentException("range must be positive: " + range);
+    }
+    return (range <= (Math.min(maxDenseBytes, DENSE_MAX_BYTES) / Long.BYTES))
+        ? new DirectSampleHistogram(range)
+        : new SparseSampleHistogram(range);
+  }
+
+  /**
+   * @return the number of possible values
+   */
+  abstract long getRange();
+
+  /**
+   * Adds one to the count of the given value.
+   * @param value a value in [0, range)
+   */
+  abstract void increment(long value);
+
+  /**
+   * Adds count to the count of the given value.
+   * @param value a value in [0, range)
+   * @param count the amount to add
+   */
+  abstract void add(long value, long count);
+
+  /**
+   * @param value a value in [0, range)
+   * @return the count of the given value
+   */
+  abstract long getCount(long value);
+
+  /**
+   * Streams every value with a non-zero count, in no particular order.
+   * @param consumer receives each (value, count) pair
+   */
+  abstract void forEachNonZero(CountConsumer consumer);
+
+  /**
+   * Adds all counts of the other histogram into this one.
+   * @param other a histogram with the same range
+   */
+  void merge(final SampleHistogram other) {
+    if (other.getRange() != getRange()) {
+      throw new IllegalArgumentException("Histogram ranges differ: " + getRange() + " vs "
+          + other.getRange());
+    }
+    other.forEachNonZero(this::add);
+  }
+
+  /**
+   * @return the number of values with a non-zero count
+   */
+  long getNumNonZero() {
+    final long[] num = new long[1];
+    forEachNonZero((value, count) -> num[0]++);
+    return num[0];
+  }
+
+  /**
+   * Releases any off-heap memory. The histogram must not be used afterwards.
+   */
+  @Override
+  public abstract void close();
+
+}
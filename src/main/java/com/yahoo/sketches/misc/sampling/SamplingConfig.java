@@ -3,21 +3,21 @@ package com.yahoo.sketches.misc.sampling;
 public class SamplingConfig {
   private final int numIters_;
   private final int numSketches_;
-  private final int[] rangeSize_;
+  private final long[] rangeSize_;
   private final int[] k_;
 
   SamplingConfig(final int numIters, final int numSketches, final int k,
-      final int rangeSize) {
+      final long rangeSize) {
     numIters_ = numIters;
     numSketches_ = numSketches;
-    rangeSize_ = new int[1];
+    rangeSize_ = new long[1];
     rangeSize_[0] = rangeSize;
     k_ = new int[1];
     k_[0] = k;
   }
 
   SamplingConfig(final int numIters, final int numSketches, final int[] k,
-      final int[] rangeSize) {
+      final long[] rangeSize) {
     if (k.length != numSketches) {
       throw new IllegalArgumentException(
           "Number of sketches to generate must equal length of array of k values");
@@ -33,6 +33,21 @@ public class SamplingConfig {
     k_ = k.clone();
   }
 
+  private SamplingConfig(final int numIters, final SamplingConfig other) {
+    numIters_ = numIters;
+    numSketches_ = other.numSketches_;
+    rangeSize_ = other.rangeSize_;
+    k_ = other.k_;
+  }
+
+  /**
+   * @param numIters the number of iterations of the new config
+   * @return a copy of this config with a different number of iterations
+   */
+  SamplingConfig withNumIters(final int numIters) {
+    return new SamplingConfig(numIters, this);
+  }
+
   int getNumIters() {
     return numIters_;
   }
@@ -41,15 +56,15 @@ public class SamplingConfig {
     return numSketches_;
   }
 
-  int getRangeSize() {
+  long getRangeSize() {
     return rangeSize_[0];
   }
 
-  int getRangeSize(final int i) {
+  long getRangeSize(final int i) {
     return rangeSize_[i];
   }
 
-  int[] getRangeSizeArray() {
+  long[] getRangeSizeArray() {
     return rangeSize_.clone();
   }
 
@@ -77,10 +92,10 @@ public class SamplingConfig {
     return max;
   }
 
-  int getCumulativeRange() {
+  long getCumulativeRange() {
     if (rangeSize_.length > 1) {
-      int rangeMax = 0;
-      for (int val : rangeSize_) {
+      long rangeMax = 0;
+      for (long val : rangeSize_) {
         rangeMax += val;
       }
       return rangeMax;
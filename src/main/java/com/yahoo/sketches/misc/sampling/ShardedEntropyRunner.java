@@ -0,0 +1,376 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.yahoo.sketches.Util;
+
+/**
+ * Runs the ReservoirEntropy experiments as independent shards that checkpoint their partial
+ * histograms to disk, so that a long run can be spread across processes or machines and resumed
+ * after an interruption.
+ *
+ * <p>The iterations of an experiment are split into numShards contiguous blocks. A shard runs
+ * its block on a single worker thread, including any fork-join subtasks, and reseeds the shared
+ * sampling random number generator before every iteration with a value derived from the run seed
+ * and the iteration index. The samples of an iteration therefore depend only on the seed and the
+ * iteration, not on the sharding, the checkpoint schedule or any restarts, and merging the shards
+ * of a run gives the same histogram as running it unsharded with the same seed. The generator is
+ * shared by the whole JVM, so each shard needs its own process; run one per core to use a whole
+ * machine.
+ *
+ * <pre>
+ * ShardedEntropyRunner run &lt;experiment&gt; &lt;shardIdx&gt; &lt;numShards&gt; &lt;seed&gt;
+ *     &lt;file&gt; [numIters] [checkpoint seconds]
+ * ShardedEntropyRunner merge [--allow-partial] &lt;outFile&gt;
+ *     &lt;shardFile&gt;...
+ * ShardedEntropyRunner stats &lt;file&gt;
+ * </pre>
+ *
+ * <p>A run whose file already exists resumes from it. Merge checks that the shards come from
+ * the same run and do not overlap. If any iterations are missing, from absent or incomplete
+ * shards, it fails without writing the output unless --allow-partial is given, in which case it
+ * lists them and writes the partial histogram.
+ */
+public final class ShardedEntropyRunner {
+  private static final int DEFAULT_CHECKPOINT_SECS = 60;
+  private static final String SAMPLING_UTIL = "com.yahoo.sketches.sampling.SamplingUtil";
+  private static final String SAMPLING_RAND_FIELD = "rand";
+  // The sketches-core version whose SamplingUtil.rand seeded runs were checked against
+  static final String SEEDED_SKETCHES_CORE_VERSION = "0.11.0";
+  private static volatile Random samplingRand;
+
+  private ShardedEntropyRunner() {}
+
+  /**
+   * The experiments of ReservoirEntropy, with their default number of iterations.
+   */
+  enum Experiment {
+    SKETCH(100000, ReservoirEntropy::runIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 1, 64, 64 * 64);
+      }
+    },
+    LARGE_SKETCH(20000, ReservoirEntropy::runIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 1, 1 << 20, 1L << 23);
+      }
+    },
+    HUGE_RANGE(100, ReservoirEntropy::runLongsIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 4, 1 << 16, 1L << 30);
+      }
+    },
+    UNION(100000, ReservoirEntropy::runIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 13, 100, 100);
+      }
+    },
+    MISMATCHED_K(100000, ReservoirEntropy::runIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 2, new int[] {128, 1024}, new long[] {8192, 1024});
+      }
+    },
+    TREE_UNION(100000, ReservoirEntropy::runTreeUnionIterations) {
+      @Override SamplingConfig newConfig(final int numIters) {
+        return new SamplingConfig(numIters, 13, 100, 200);
+      }
+    };
+
+    final int defaultNumIters;
+    final ReservoirEntropy.IterationRunner runner;
+
+    Experiment(final int defaultNumIters, final ReservoirEntropy.IterationRunner runner) {
+      this.defaultNumIters = defaultNumIters;
+      this.runner = runner;
+    }
+
+    abstract SamplingConfig newConfig(int numIters);
+  }
+
+  /**
+   * @param args see the class description
+   * @throws IOException if a checkpoint file cannot be read or written
+   */
+  public static void main(final String[] args) throws IOException {
+    if ((args.length >= 6) && args[0].equals("run")) {
+      final Experiment exp = Experiment.valueOf(args[1]);
+      final int numIters = (args.length > 6) ? Integer.parseInt(args[6]) : exp.defaultNumIters;
+      final int checkpointSecs = (args.length > 7)
+          ? Integer.parseInt(args[7]) : DEFAULT_CHECKPOINT_SECS;
+      runShard(exp, exp.newConfig(numIters), Integer.parseInt(args[2]),
+          Integer.parseInt(args[3]), Long.parseLong(args[4]), Paths.get(args[5]),
+          checkpointSecs * 1_000_000_000L);
+    } else if ((args.length >= 3) && args[0].equals("merge")) {
+      final boolean allowPartial = args[1].equals("--allow-partial");
+      final int first = allowPartial ? 2 : 1;
+      final List<Path> inputs = new ArrayList<>();
+      for (int i = first + 1; i < args.length; ++i) { inputs.add(Paths.get(args[i])); }
+      if (inputs.isEmpty()) {
+        throw new IllegalArgumentException("No shard files to merge");
+      }
+      merge(inputs, Paths.get(args[first]), allowPartial);
+    } else if ((args.length == 2) && args[0].equals("stats")) {
+      try (HistogramCheckpoint cp = HistogramCheckpoint.read(Paths.get(args[1]))) {
+        System.out.println(cp);
+        System.out.println(getStats(cp));
+      }
+    } else {
+      System.err.println("Usage: ShardedEntropyRunner run <experiment> <shardIdx> <numShards>"
+          + " <seed> <file> [numIters] [checkpoint seconds]");
+      System.err.println("       ShardedEntropyRunner merge [--allow-partial] <outFile>"
+          + " <shardFile>...");
+      System.err.println("       ShardedEntropyRunner stats <file>");
+      System.err.println("Experiments: " + Arrays.toString(Experiment.values()));
+    }
+  }
+
+  /**
+   * Runs, or resumes, one shard of an experiment, writing a checkpoint to path at least every
+   * checkpointIntervalNs and when the shard is complete.
+   *
+   * @param exp the experiment
+   * @param sc the experiment's configuration
+   * @param shardIdx index of this shard in [0, numShards)
+   * @param numShards number of shards the iterations are split into
+   * @param seed seed of the whole run, shared by all of its shards
+   * @param path the shard's checkpoint file
+   * @param checkpointIntervalNs time between checkpoints
+   * @throws IOException if the checkpoint cannot be read or written
+   */
+  static void runShard(final Experiment exp, final SamplingConfig sc, final int shardIdx,
+                       final int numShards, final long seed, final Path path,
+                       final long checkpointIntervalNs) throws IOException {
+    if ((shardIdx < 0) || (shardIdx >= numShards)) {
+      throw new IllegalArgumentException("shardIdx must be in [0, " + numShards + "): "
+          + shardIdx);
+    }
+    final int startIter = (int) (((long) shardIdx * sc.getNumIters()) / numShards);
+    final int endIter = (int) (((long) (shardIdx + 1) * sc.getNumIters()) / numShards);
+    getSamplingRandom(); // fail before opening the checkpoint if runs cannot be seeded
+
+    // one worker, so even forked subtasks draw from the generator in a fixed order
+    final ForkJoinPool pool = new ForkJoinPool(1);
+    try (HistogramCheckpoint cp = openShard(exp, sc, shardIdx, numShards, seed, startIter,
+        endIter, path)) {
+      System.err.println("Starting " + cp);
+      long lastCheckpoint_ns = System.nanoTime();
+      while (!cp.isComplete()) {
+        final int iter = startIter + cp.itersDone;
+        seedIteration(seed, iter);
+        pool.invoke(ForkJoinTask.adapt(() -> exp.runner.run(sc, iter, iter + 1, cp.histogram)));
+        ++cp.itersDone;
+
+        if ((System.nanoTime() - lastCheckpoint_ns) >= checkpointIntervalNs) {
+          cp.write(path);
+          lastCheckpoint_ns = System.nanoTime();
+          System.err.println("Checkpoint " + cp);
+        }
+      }
+      cp.write(path);
+      System.err.println("Finished " + cp);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // Resumes from an existing checkpoint of the same shard, or starts an empty one
+  private static HistogramCheckpoint openShard(final Experiment exp, final SamplingConfig sc,
+                                               final int shardIdx, final int numShards,
+                                               final long seed, final int startIter,
+                                               final int endIter, final Path path)
+      throws IOException {
+    final HistogramCheckpoint fresh = new HistogramCheckpoint(exp.name(), sc, seed, shardIdx,
+        numShards, startIter, endIter, 0, SampleHistogram.newInstance(sc.getCumulativeRange()));
+    if (!Files.exists(path)) {
+      return fresh;
+    }
+    final HistogramCheckpoint saved = HistogramCheckpoint.read(path);
+    final boolean sameShard = saved.isSameRun(fresh) && (saved.startIter == startIter)
+        && (saved.endIter == endIter);
+    fresh.close();
+    if (!sameShard) {
+      saved.close();
+      throw new IllegalArgumentException("Checkpoint " + path + " holds a different shard or run: "
+          + saved);
+    }
+    return saved;
+  }
+
+  /**
+   * Merges the given shard checkpoints of one run into a single checkpoint at outPath and
+   * prints its statistics.
+   *
+   * @param inputs shard checkpoint files, all from the same run
+   * @param outPath the merged checkpoint file
+   * @param allowPartial if false, missing iterations are an error and nothing is written
+   * @throws IOException if a checkpoint cannot be read or written
+   */
+  static void merge(final List<Path> inputs, final Path outPath, final boolean allowPartial)
+      throws IOException {
+    final List<HistogramCheckpoint> shards = new ArrayList<>(inputs.size());
+    try {
+      for (Path p : inputs) { shards.add(HistogramCheckpoint.read(p)); }
+      shards.sort(Comparator.comparingInt(cp -> cp.startIter));
+
+      final HistogramCheckpoint first = shards.get(0);
+      final List<String> missing = new ArrayList<>();
+      int itersDone = 0;
+      int coveredTo = 0;
+      for (HistogramCheckpoint cp : shards) {
+        if (!cp.isSameRun(first)) {
+          throw new IllegalArgumentException("Shards come from different runs: " + first
+              + " and " + cp);
+        }
+        if (cp.startIter < coveredTo) {
+          throw new IllegalArgumentException("Shards overlap at iteration " + cp.startIter
+              + ": " + cp);
+        }
+        if (cp.startIter > coveredTo) {
+          missing.add("Missing iterations [" + coveredTo + ", " + cp.startIter + ")");
+        }
+        if (!cp.isComplete()) {
+          missing.add("Incomplete shard " + cp);
+        }
+        coveredTo = cp.endIter;
+        itersDone += cp.itersDone;
+      }
+      if (coveredTo < first.numIters) {
+        missing.add("Missing iterations [" + coveredTo + ", " + first.numIters + ")");
+      }
+      if (!missing.isEmpty()) {
+        if (!allowPartial) {
+          throw new IllegalStateException(String.join("; ", missing)
+              + ". Nothing was written; use --allow-partial to merge anyway.");
+        }
+        for (String m : missing) { System.err.println(m); }
+      }
+
+      for (int i = 1; i < shards.size(); ++i) {
+        first.histogram.merge(shards.get(i).histogram);
+      }
+      final Experiment exp = Experiment.valueOf(first.experiment);
+      final SamplingConfig sc = exp.newConfig(first.numIters);
+      // shares first's histogram, which is closed with the shards below
+      final HistogramCheckpoint merged = new HistogramCheckpoint(first.experiment, sc,
+          first.seed, 0, 1, 0, first.numIters, itersDone, first.histogram);
+      merged.write(outPath);
+      System.out.println(merged);
+      System.out.println(getStats(merged));
+    } finally {
+      for (HistogramCheckpoint cp : shards) { cp.close(); }
+    }
+  }
+
+  private static String getStats(final HistogramCheckpoint cp) {
+    final SamplingConfig sc = Experiment.valueOf(cp.experiment).newConfig(cp.itersDone);
+    return ReservoirEntropy.printStats(cp.histogram, sc);
+  }
+
+  /**
+   * Reseeds the generator behind every reservoir sketch and union for the given iteration of
+   * the run with the given seed.
+   * @param seed seed of the whole run
+   * @param iter the iteration about to run
+   */
+  static void seedIteration(final long seed, final int iter) {
+    final Random rand = getSamplingRandom();
+    try {
+      rand.setSeed(iterationSeed(seed, iter));
+    } catch (final UnsupportedOperationException e) { // e.g. ThreadLocalRandom
+      throw seedingFailure("to reseed " + SAMPLING_UTIL + "." + SAMPLING_RAND_FIELD
+          + ", but its " + rand.getClass().getName() + " cannot be reseeded", e);
+    }
+  }
+
+  /**
+   * Returns the generator behind every reservoir sketch and union. It is a static of a
+   * package-private class of sketches-core, so seeded runs depend on its name and type not
+   * changing; ShardedEntropyRunnerTest checks that seeded runs still reproduce.
+   * @return the sampling generator of sketches-core
+   */
+  static Random getSamplingRandom() {
+    Random rand = samplingRand;
+    if (rand == null) {
+      rand = lookUpSamplingRandom();
+      samplingRand = rand;
+    }
+    return rand;
+  }
+
+  private static Random lookUpSamplingRandom() {
+    final String name = SAMPLING_UTIL + "." + SAMPLING_RAND_FIELD;
+    final Field field;
+    try {
+      field = Class.forName(SAMPLING_UTIL).getDeclaredField(SAMPLING_RAND_FIELD);
+    } catch (final ClassNotFoundException | NoSuchFieldException e) {
+      throw seedingFailure("the sampling generator " + name, e);
+    }
+    if (!Modifier.isStatic(field.getModifiers())
+        || !Random.class.isAssignableFrom(field.getType())) {
+      throw seedingFailure(name + " to be a static Random, but it is declared as: " + field,
+          null);
+    }
+    final Random rand;
+    try {
+      field.setAccessible(true);
+      rand = (Random) field.get(null);
+    } catch (final IllegalAccessException | RuntimeException e) {
+      throw seedingFailure("to read " + name + ": " + e, e);
+    }
+    if (rand == null) {
+      throw seedingFailure(name + ", but it is null", null);
+    }
+    return rand;
+  }
+
+  private static IllegalStateException seedingFailure(final String need, final Throwable cause) {
+    return new IllegalStateException("Seeded runs need " + need + ". They were written against"
+        + " sketches-core " + SEEDED_SKETCHES_CORE_VERSION + ", but the classpath has"
+        + " sketches-core " + getSketchesCoreVersion() + ".", cause);
+  }
+
+  // Version from the jar manifest, or from the Maven metadata if the manifest has none
+  static String getSketchesCoreVersion() {
+    final Package pkg = Util.class.getPackage();
+    if ((pkg != null) && (pkg.getImplementationVersion() != null)) {
+      return pkg.getImplementationVersion();
+    }
+    try (InputStream in = Util.class.getResourceAsStream(
+        "/META-INF/maven/com.yahoo.datasketches/sketches-core/pom.properties")) {
+      if (in != null) {
+        final Properties props = new Properties();
+        props.load(in);
+        return props.getProperty("version", "unknown");
+      }
+    } catch (final IOException e) {
+      // fall through
+    }
+    return "unknown";
+  }
+
+  // Finalization mix of MurmurHash3 over the run seed and iteration index
+  static long iterationSeed(final long seed, final int iter) {
+    long h = seed + (iter * 0x9E3779B97F4A7C15L);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
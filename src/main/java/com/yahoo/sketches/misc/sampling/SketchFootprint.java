@@ -0,0 +1,155 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.util.function.LongFunction;
+
+import com.yahoo.sketches.ArrayOfItemsSerDe;
+import com.yahoo.sketches.ArrayOfLongsSerDe;
+import com.yahoo.sketches.ArrayOfStringsSerDe;
+import com.yahoo.sketches.sampling.ReservoirItemsSketch;
+import com.yahoo.sketches.sampling.ReservoirItemsUnion;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+import com.yahoo.sketches.sampling.ReservoirLongsUnion;
+
+/**
+ * Measures the memory footprint of reservoir sketches over a range of k and item types.
+ *
+ * <p>For each configuration this reports:
+ * <ul>
+ * <li>Retained heap per sketch, including the sampled items themselves. This is measured as
+ * the change in used heap, after full GCs, from building many identical sketches.</li>
+ * <li>Serialized size in bytes.</li>
+ * <li>Union working set: the additional heap retained by one union after merging several
+ * sketches, not counting the items, which are shared with the input sketches.</li>
+ * </ul>
+ *
+ * <p>Every sketch has seen 2k items, so its reservoir is full. Heap figures depend on the JVM
+ * and on whether compressed oops are in use. Run with a heap large enough for
+ * MEASURE_BYTES plus headroom, e.g. -Xmx2g.
+ */
+public final class SketchFootprint {
+  private static final String LS = System.getProperty("line.separator");
+  private static final long MEASURE_BYTES = 1L << 28; // target heap built per measurement
+  private static final int MAX_COPIES = 10000;
+  private static final int UNION_INPUTS = 8;
+
+  private SketchFootprint() {}
+
+  /**
+   * @param args not used
+   */
+  public static void main(final String[] args) {
+    final int lgKlo = 4;
+    final int lgKhi = 16;
+    System.out.printf("%-32s%10s%16s%14s%16s%16s" + LS,
+        "Sketch", "k", "heap/sketch", "heap/sample", "serialized", "union extra");
+    for (int lgK = lgKlo; lgK <= lgKhi; ++lgK) {
+      final int k = 1 << lgK;
+      printLongsRow(k);
+      printItemsRow("ReservoirItemsSketch<Long>", k, Long::valueOf, new ArrayOfLongsSerDe());
+      printItemsRow("ReservoirItemsSketch<String>", k, Long::toHexString,
+          new ArrayOfStringsSerDe());
+    }
+  }
+
+  private static void printLongsRow(final int k) {
+    final int copies = getNumCopies(k);
+
+    final long before = getUsedHeapAfterGc();
+    final ReservoirLongsSketch[] sketches = new ReservoirLongsSketch[copies];
+    for (int i = 0; i < copies; ++i) {
+      sketches[i] = buildLongsSketch(k, (long) i * 2 * k);
+    }
+    final double perSketch = (getUsedHeapAfterGc() - before) / (double) copies;
+    final int serBytes = sketches[0].toByteArray().length;
+
+    final ReservoirLongsSketch[] inputs = new ReservoirLongsSketch[UNION_INPUTS];
+    System.arraycopy(sketches, 0, inputs, 0, UNION_INPUTS);
+    final ReservoirLongsUnion[] unions = new ReservoirLongsUnion[copies];
+    final long unionBefore = getUsedHeapAfterGc();
+    for (int i = 0; i < copies; ++i) {
+      unions[i] = ReservoirLongsUnion.newInstance(k);
+      for (ReservoirLongsSketch input : inputs) { unions[i].update(input); }
+    }
+    final double perUnion = (getUsedHeapAfterGc() - unionBefore) / (double) copies;
+
+    printRow("ReservoirLongsSketch", k, perSketch, serBytes, perUnion);
+    keepAlive(sketches, unions);
+  }
+
+  private static <T> void printItemsRow(final String name, final int k,
+      final LongFunction<T> itemFn, final ArrayOfItemsSerDe<T> serDe) {
+    final int copies = getNumCopies(k);
+
+    final long before = getUsedHeapAfterGc();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final ReservoirItemsSketch<T>[] sketches = new ReservoirItemsSketch[copies];
+    for (int i = 0; i < copies; ++i) {
+      sketches[i] = buildItemsSketch(k, (long) i * 2 * k, itemFn);
+    }
+    final double perSketch = (getUsedHeapAfterGc() - before) / (double) copies;
+    final int serBytes = sketches[0].toByteArray(serDe).length;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final ReservoirItemsUnion<T>[] unions = new ReservoirItemsUnion[copies];
+    final long unionBefore = getUsedHeapAfterGc();
+    for (int i = 0; i < copies; ++i) {
+      unions[i] = ReservoirItemsUnion.newInstance(k);
+      for (int j = 0; j < UNION_INPUTS; ++j) { unions[i].update(sketches[j]); }
+    }
+    final double perUnion = (getUsedHeapAfterGc() - unionBefore) / (double) copies;
+
+    printRow(name, k, perSketch, serBytes, perUnion);
+    keepAlive(sketches, unions);
+  }
+
+  static ReservoirLongsSketch buildLongsSketch(final int k, final long firstValue) {
+    final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(k);
+    for (long v = firstValue; v < (firstValue + (2L * k)); ++v) { rls.update(v); }
+    return rls;
+  }
+
+  static <T> ReservoirItemsSketch<T> buildItemsSketch(final int k, final long firstValue,
+      final LongFunction<T> itemFn) {
+    final ReservoirItemsSketch<T> ris = ReservoirItemsSketch.newInstance(k);
+    for (long v = firstValue; v < (firstValue + (2L * k)); ++v) { ris.update(itemFn.apply(v)); }
+    return ris;
+  }
+
+  // Enough copies that the measured delta is well above GC noise, but at least UNION_INPUTS
+  private static int getNumCopies(final int k) {
+    final long estBytesPerSketch = 64L * k;
+    return (int) Math.max(UNION_INPUTS, Math.min(MAX_COPIES, MEASURE_BYTES / estBytesPerSketch));
+  }
+
+  private static void printRow(final String name, final int k, final double perSketch,
+      final int serBytes, final double perUnion) {
+    System.out.printf("%-32s%10d%,16.0f%14.1f%,16d%,16.0f" + LS,
+        name, k, perSketch, perSketch / k, serBytes, perUnion);
+  }
+
+  /**
+   * Returns the used heap in bytes after running the garbage collector until the used heap
+   * stops shrinking.
+   * @return used heap in bytes
+   */
+  static long getUsedHeapAfterGc() {
+    final Runtime rt = Runtime.getRuntime();
+    long used = rt.totalMemory() - rt.freeMemory();
+    for (int i = 0; i < 10; ++i) {
+      System.gc();
+      final long nowUsed = rt.totalMemory() - rt.freeMemory();
+      if ((i > 1) && (nowUsed >= used)) { return nowUsed; }
+      used = nowUsed;
+    }
+    return used;
+  }
+
+  private static volatile Object sink;
+
+  // Keeps the measured objects reachable until after the final heap measurement
+  private static void keepAlive(final Object... objs) {
+    sink = objs;
+    sink = null;
+  }
+
+}
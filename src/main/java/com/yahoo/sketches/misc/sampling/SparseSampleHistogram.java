@@ -0,0 +1,138 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.util.Arrays;
+
+/**
+ * Sparse SampleHistogram: an open-addressed hash map from value to count with linear probing,
+ * holding only the values that have been sampled.
+ */
+final class SparseSampleHistogram extends SampleHistogram {
+  private static final long EMPTY = -1L; // values are non-negative
+  private static final int INIT_LG_CAPACITY = 16;
+  private static final int MAX_LG_CAPACITY = 30;
+  private static final double LOAD_FACTOR = 0.75;
+
+  private final long range_;
+  private final int maxLgCapacity_;
+  private long[] keys_;
+  private long[] counts_;
+  private int mask_;
+  private int numKeys_;
+  private int growThreshold_;
+
+  SparseSampleHistogram(final long range) {
+    this(range, MAX_LG_CAPACITY);
+  }
+
+  // maxLgCapacity below MAX_LG_CAPACITY lets tests fill the table
+  SparseSampleHistogram(final long range, final int maxLgCapacity) {
+    range_ = range;
+    maxLgCapacity_ = Math.min(maxLgCapacity, MAX_LG_CAPACITY);
+    allocate(Math.min(INIT_LG_CAPACITY, maxLgCapacity_));
+  }
+
+  @Override
+  long getRange() {
+    return range_;
+  }
+
+  @Override
+  void increment(final long value) {
+    add(value, 1);
+  }
+
+  @Override
+  void add(final long value, final long count) {
+    if ((value < 0) || (value >= range_)) {
+      throw new IllegalArgumentException("value out of range: " + value);
+    }
+    int idx = find(value);
+    if (keys_[idx] == value) {
+      counts_[idx] += count;
+      return;
+    }
+    // make room before inserting, so a full table is left unchanged
+    if (numKeys_ >= growThreshold_) {
+      grow();
+      idx = find(value);
+    }
+    keys_[idx] = value;
+    counts_[idx] = count;
+    ++numKeys_;
+  }
+
+  @Override
+  long getCount(final long value) {
+    final int idx = find(value);
+    return (keys_[idx] == value) ? counts_[idx] : 0;
+  }
+
+  // Index of value, or of the empty slot where it would go. The table always keeps an empty
+  // slot, but the probe still stops after one full pass.
+  private int find(final long value) {
+    int idx = hash(value) & mask_;
+    for (int probes = 0; probes < keys_.length; ++probes) {
+      final long key = keys_[idx];
+      if ((key == value) || (key == EMPTY)) { return idx; }
+      idx = (idx + 1) & mask_;
+    }
+    throw new IllegalStateException("Sparse histogram has no empty slot: " + numKeys_
+        + " values");
+  }
+
+  @Override
+  void forEachNonZero(final CountConsumer consumer) {
+    for (int i = 0; i < keys_.length; ++i) {
+      if ((keys_[i] != EMPTY) && (counts_[i] != 0)) {
+        consumer.accept(keys_[i], counts_[i]);
+      }
+    }
+  }
+
+  @Override
+  long getNumNonZero() {
+    return numKeys_;
+  }
+
+  @Override
+  public void close() {
+    // nothing off-heap
+  }
+
+  private void allocate(final int lgCapacity) {
+    keys_ = new long[1 << lgCapacity];
+    counts_ = new long[1 << lgCapacity];
+    Arrays.fill(keys_, EMPTY);
+    mask_ = (1 << lgCapacity) - 1;
+    numKeys_ = 0;
+    // at the largest capacity, fill all but one slot so that probes always end
+    growThreshold_ = (lgCapacity >= maxLgCapacity_)
+        ? (1 << lgCapacity) - 1
+        : (int) (LOAD_FACTOR * (1 << lgCapacity));
+  }
+
+  private void grow() {
+    final int lgCapacity = Integer.numberOfTrailingZeros(keys_.length);
+    if (lgCapacity >= maxLgCapacity_) {
+      throw new IllegalStateException("Sparse histogram is full: " + numKeys_ + " values");
+    }
+    final long[] oldKeys = keys_;
+    final long[] oldCounts = counts_;
+    allocate(lgCapacity + 1);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldKeys[i] != EMPTY) { add(oldKeys[i], oldCounts[i]); }
+    }
+  }
+
+  // finalization mix of MurmurHash3, so runs of consecutive values spread over the table
+  private static int hash(final long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+}
@@ -0,0 +1,208 @@
+package com.yahoo.sketches.misc.sampling;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+import com.yahoo.sketches.sampling.ReservoirLongsUnion;
+
+/**
+ * A reservoir sampler of longs that many threads can update concurrently.
+ *
+ * <p>Each updating thread gets its own shard, a reservoir of size k that only that thread
+ * updates. update() is wait-free: it takes no lock, never waits for another thread, and
+ * publishes its changes with ordered stores only. Each shard draws from its own
+ * SplittableRandom rather than from the JVM-wide generator of ReservoirLongsSketch, and once
+ * full it skips ahead to the next accepted item (Li's Algorithm L), so a full shard draws
+ * random numbers only for the few items it keeps. Threads therefore share no mutable state on
+ * the update path.
+ *
+ * <p>getResult() copies each shard without stopping its owner: a shard counts a version up
+ * before and after every change to its samples, and a copy that saw the version change is
+ * retried. Each copy is put in the serialized form of ReservoirLongsSketch and the copies are
+ * unioned with a ReservoirLongsUnion. Every shard is a uniform sample of the items its thread
+ * has offered, and the union of the shards is a uniform sample of size k of all items offered
+ * before each shard was copied.
+ *
+ * <p>Shards are retained for the life of the sampler, including those of threads that have
+ * exited, since they hold part of the sample.
+ */
+public final class StripedReservoirLongsSampler {
+  private static final int LG_RESIZE_FACTOR = 3; // ResizeFactor.X8, the default
+  private static final int RESERVOIR_FAMILY_ID = 11; // Family.RESERVOIR
+
+  private final int k_;
+  private final List<Shard> shards_ = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Shard> localShard_;
+
+  /**
+   * @param k the size of the final sample and of each shard
+   */
+  public StripedReservoirLongsSampler(final int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("k must be at least 1: " + k);
+    }
+    k_ = k;
+    localShard_ = ThreadLocal.withInitial(() -> {
+      final Shard shard = new Shard(k_, new SplittableRandom());
+      shards_.add(shard);
+      return shard;
+    });
+  }
+
+  /**
+   * Offers one item to the calling thread's shard.
+   * @param item the item to offer
+   */
+  public void update(final long item) {
+    localShard_.get().update(item);
+  }
+
+  /**
+   * @return a uniform sample of size at most k of all items offered so far, across all threads
+   */
+  public ReservoirLongsSketch getResult() {
+    final ReservoirLongsUnion rlu = ReservoirLongsUnion.newInstance(k_);
+    for (Shard shard : shards_) {
+      final long[] samplesAndN = shard.copySamples();
+      if (samplesAndN.length > 0) {
+        rlu.update(toSketchImage(k_, samplesAndN));
+      }
+    }
+    return rlu.getResult();
+  }
+
+  /**
+   * @return the number of items offered so far, across all threads
+   */
+  public long getN() {
+    long n = 0;
+    for (Shard shard : shards_) {
+      n += shard.getN();
+    }
+    return n;
+  }
+
+  /**
+   * @return the size of the final sample and of each shard
+   */
+  public int getK() {
+    return k_;
+  }
+
+  /**
+   * @return the number of shards, one per thread that has ever updated this sampler
+   */
+  public int getNumShards() {
+    return shards_.size();
+  }
+
+  // Serialized ReservoirLongsSketch (serial version 2) of a non-empty shard copy, whose last
+  // element is its n. The layout is pinned by StripedReservoirLongsSamplerTest.
+  static WritableMemory toSketchImage(final int k, final long[] samplesAndN) {
+    final int numSamples = samplesAndN.length - 1;
+    final WritableMemory mem = WritableMemory.wrap(new byte[(2 + numSamples) << 3]);
+    mem.putByte(0, (byte) ((LG_RESIZE_FACTOR << 6) | 2)); // preamble longs
+    mem.putByte(1, (byte) 2); // serial version
+    mem.putByte(2, (byte) RESERVOIR_FAMILY_ID);
+    mem.putByte(3, (byte) 0); // flags: not empty
+    mem.putInt(4, k);
+    mem.putLong(8, samplesAndN[numSamples]);
+    mem.putLongArray(16, samplesAndN, 0, numSamples);
+    return mem;
+  }
+
+  /**
+   * One thread's reservoir. Only the owning thread calls update(); any thread may call getN()
+   * and copySamples().
+   */
+  static final class Shard {
+    private final int k_;
+    private final SplittableRandom rand_;
+    private final AtomicLongArray samples_;
+    private final AtomicLong n_ = new AtomicLong();
+    // odd while the samples are being changed
+    private final AtomicLong version_ = new AtomicLong();
+
+    // owner-only state
+    private long count_;
+    private long ownerVersion_;
+    private long nextAccept_; // 1-based index of the next item to keep, once full
+    private double w_;
+
+    Shard(final int k, final SplittableRandom rand) {
+      k_ = k;
+      rand_ = rand;
+      samples_ = new AtomicLongArray(k);
+    }
+
+    void update(final long item) {
+      final long n = count_ + 1;
+      if (n <= k_) {
+        // filling: no sample a reader may copy is overwritten, so the version is left alone
+        samples_.lazySet((int) (n - 1), item);
+        if (n == k_) {
+          w_ = Math.exp(Math.log(uniform()) / k_);
+          nextAccept_ = nextAcceptAfter(n);
+        }
+      } else if (n == nextAccept_) {
+        putSample(rand_.nextInt(k_), item);
+        w_ *= Math.exp(Math.log(uniform()) / k_);
+        nextAccept_ = nextAcceptAfter(n);
+      }
+      count_ = n;
+      n_.lazySet(n); // after the samples, so a reader that sees n sees the samples it covers
+    }
+
+    long getN() {
+      return n_.get();
+    }
+
+    /**
+     * @return the samples of a consistent state of this shard followed by its n, or an empty
+     * array if the shard has no samples yet
+     */
+    long[] copySamples() {
+      for (int attempt = 0; ; ++attempt) {
+        final long version = version_.get();
+        if ((version & 1) == 0) {
+          final long n = n_.get();
+          final int numSamples = (int) Math.min(n, k_);
+          final long[] samplesAndN = new long[numSamples + 1];
+          for (int i = 0; i < numSamples; ++i) {
+            samplesAndN[i] = samples_.get(i);
+          }
+          samplesAndN[numSamples] = n;
+          if (version_.get() == version) {
+            return (numSamples == 0) ? new long[0] : samplesAndN;
+          }
+        }
+        if (attempt > 0) { Thread.yield(); }
+      }
+    }
+
+    // Replaces a sample with ordered stores only: the odd version before it, the even one after
+    private void putSample(final int slot, final long item) {
+      version_.lazySet(++ownerVersion_);
+      samples_.lazySet(slot, item);
+      version_.lazySet(++ownerVersion_);
+    }
+
+    // Algorithm L: the number of items skipped before the next kept one is geometric in 1 - w
+    private long nextAcceptAfter(final long n) {
+      final double skip = Math.floor(Math.log(uniform()) / Math.log1p(-w_));
+      // also catches NaN and infinity, should w_ ever underflow to 0
+      return (skip < (Long.MAX_VALUE - n - 1)) ? n + (long) skip + 1 : Long.MAX_VALUE;
+    }
+
+    // uniform in (0, 1], so its log is finite
+    private double uniform() {
+      return 1.0 - rand_.nextDouble();
+    }
+  }
+
+}
@@ -0,0 +1,294 @@
+package com.yahoo.sketches.misc.sampling;
+
+import com.yahoo.sketches.Util;
+
+/**
+ * Tests of the hypothesis that every iteration of an entropy experiment draws a uniform random
+ * sample, without replacement, of the same size from [0, range), computed from the histogram of
+ * all samples.
+ *
+ * <p>Three statistics are reported, each with a p-value:
+ * <ul>
+ * <li>Chi-square over all values. Samples within an iteration are drawn without replacement,
+ * so the counts are negatively correlated, and the sum of squared deviations is scaled by the
+ * exact covariance of that design. Under the hypothesis the statistic is then approximately
+ * chi-square with range - 1 degrees of freedom. The sum of squared counts is maintained
+ * incrementally, so this costs O(1) per merged entry.</li>
+ * <li>Kolmogorov-Smirnov distance between the empirical distribution of the sampled values and
+ * the uniform one. This is the most sensitive to bias towards one end of the range, e.g. towards
+ * the first or last sketch of a union. The sample size is corrected by the finite population
+ * factor of sampling without replacement.</li>
+ * <li>The largest standardized deviation of any single count, with a Sidak-corrected p-value
+ * over all values.</li>
+ * </ul>
+ * The last two need a pass over the whole range, and are not computed for ranges larger than
+ * MAX_SCAN_RANGE.
+ *
+ * <p>The histogram is not owned by this class and must be closed by the caller.
+ */
+final class UniformityStats {
+  /** Largest range over which the KS and max deviation statistics are computed */
+  static final long MAX_SCAN_RANGE = 1L << 27;
+
+  private final SampleHistogram hist_;
+  private long numIters_;
+  private long numSamples_;
+  private double sumSqCounts_;
+
+  // computed lazily by scan()
+  private boolean scanned_;
+  private double ksD_;
+  private double maxAbsZ_;
+
+  /**
+   * @param hist histogram of all samples so far, which later merges are added into
+   * @param numIters number of iterations already in hist
+   */
+  UniformityStats(final SampleHistogram hist, final long numIters) {
+    hist_ = hist;
+    numIters_ = numIters;
+    final double[] sums = new double[2];
+    hist.forEachNonZero((value, count) -> {
+      sums[0] += count;
+      sums[1] += (double) count * count;
+    });
+    numSamples_ = (long) sums[0];
+    sumSqCounts_ = sums[1];
+  }
+
+  /**
+   * Adds the samples of further iterations into the histogram and the statistics.
+   * @param block histogram of the new iterations, which is not modified
+   * @param blockIters number of iterations in block
+   */
+  void merge(final SampleHistogram block, final long blockIters) {
+    block.forEachNonZero((value, count) -> {
+      final long old = hist_.getCount(value);
+      hist_.add(value, count);
+      sumSqCounts_ += ((2.0 * old) + count) * count;
+      numSamples_ += count;
+    });
+    numIters_ += blockIters;
+    scanned_ = false;
+  }
+
+  long getNumIters() {
+    return numIters_;
+  }
+
+  /**
+   * @return the chi-square statistic, corrected for sampling without replacement
+   */
+  double getChiSquare() {
+    final double n = hist_.getRange();
+    final double p = getInclusionProbability();
+    final double denom = numIters_ * (n * p) * (1.0 - p);
+    if (denom <= 0) { return 0.0; }
+    final double sumSqDev = sumSqCounts_ - (((double) numSamples_ * numSamples_) / n);
+    return (Math.max(0.0, sumSqDev) * (n - 1)) / denom;
+  }
+
+  double getChiSquarePValue() {
+    final double df = hist_.getRange() - 1;
+    return (df <= 0) ? 1.0 : regularizedGammaQ(df / 2.0, getChiSquare() / 2.0);
+  }
+
+  /**
+   * @return the Kolmogorov-Smirnov distance, or NaN if the range is too large to scan
+   */
+  double getKsDistance() {
+    scan();
+    return ksD_;
+  }
+
+  double getKsPValue() {
+    final double d = getKsDistance();
+    if (Double.isNaN(d)) { return Double.NaN; }
+    final double n = hist_.getRange();
+    final double samplesPerIter = (double) numSamples_ / numIters_;
+    final double fpc = (n - samplesPerIter) / (n - 1); // variance factor without replacement
+    if (fpc <= 0) { return 1.0; }
+    final double sqrtNe = Math.sqrt(numSamples_ / fpc);
+    return kolmogorovQ((sqrtNe + 0.12 + (0.11 / sqrtNe)) * d);
+  }
+
+  /**
+   * @return the largest |count - expected| / stddev over all values, or NaN if the range is too
+   * large to scan
+   */
+  double getMaxAbsZ() {
+    scan();
+    return maxAbsZ_;
+  }
+
+  double getMaxAbsZPValue() {
+    final double z = getMaxAbsZ();
+    if (Double.isNaN(z)) { return Double.NaN; }
+    final double pOne = erfc(z / Math.sqrt(2.0)); // two-sided, for a single value
+    return -Math.expm1(hist_.getRange() * Math.log1p(-Math.min(pOne, 1.0)));
+  }
+
+  /**
+   * @return the smallest of the available p-values
+   */
+  double getMinPValue() {
+    double min = getChiSquarePValue();
+    final double ks = getKsPValue();
+    final double maxZ = getMaxAbsZPValue();
+    if (!Double.isNaN(ks)) { min = Math.min(min, ks); }
+    if (!Double.isNaN(maxZ)) { min = Math.min(min, maxZ); }
+    return min;
+  }
+
+  /**
+   * @return the number of tests behind getMinPValue()
+   */
+  int getNumTests() {
+    return (hist_.getRange() <= MAX_SCAN_RANGE) ? 3 : 1;
+  }
+
+  /**
+   * Returns the half-width, relative to the expected count, of a two-sided confidence interval
+   * for the count of any one value. A run whose tests all pass with a resolution of r shows that
+   * no value is sampled more than a fraction r more or less often than it should be, at the
+   * given confidence.
+   *
+   * @param alpha one minus the confidence
+   * @return the relative half-width
+   */
+  double getResolution(final double alpha) {
+    final double p = getInclusionProbability();
+    if (p >= 1.0) { return 0.0; }
+    return normalQuantileUpper(alpha / 2.0) * Math.sqrt((1.0 - p) / (numIters_ * p));
+  }
+
+  String getStatsString() {
+    return String.format("chi2   = %.2f on %d df (p = %.4g)", getChiSquare(),
+            hist_.getRange() - 1, getChiSquarePValue()) + Util.LS
+        + String.format("KS D   = %.3g (p = %.4g)", getKsDistance(), getKsPValue()) + Util.LS
+        + String.format("max|z| = %.3f (p = %.4g)", getMaxAbsZ(), getMaxAbsZPValue()) + Util.LS;
+  }
+
+  // probability that a given value is in one iteration's sample
+  private double getInclusionProbability() {
+    return (numIters_ == 0) ? 0.0 : numSamples_ / ((double) numIters_ * hist_.getRange());
+  }
+
+  private void scan() {
+    if (scanned_) { return; }
+    scanned_ = true;
+    final long n = hist_.getRange();
+    if ((n > MAX_SCAN_RANGE) || (numSamples_ == 0)) {
+      ksD_ = Double.NaN;
+      maxAbsZ_ = Double.NaN;
+      return;
+    }
+    final double expected = (double) numSamples_ / n;
+    final double p = getInclusionProbability();
+    final double sd = Math.sqrt(numIters_ * p * (1.0 - p));
+    long cumCount = 0;
+    double maxD = 0.0;
+    double maxDev = 0.0;
+    for (long v = 0; v < n; ++v) {
+      final long count = hist_.getCount(v);
+      cumCount += count;
+      maxD = Math.max(maxD, Math.abs(((double) cumCount / numSamples_) - ((v + 1.0) / n)));
+      maxDev = Math.max(maxDev, Math.abs(count - expected));
+    }
+    ksD_ = maxD;
+    maxAbsZ_ = (sd > 0) ? maxDev / sd : 0.0;
+  }
+
+  /**
+   * Upper tail of the Kolmogorov distribution, Q(lambda) = 2 sum (-1)^(j-1) exp(-2 j^2 lambda^2).
+   */
+  static double kolmogorovQ(final double lambda) {
+    if (lambda < 0.2) { return 1.0; }
+    double sum = 0.0;
+    double sign = 1.0;
+    for (int j = 1; j <= 100; ++j) {
+      final double term = Math.exp(-2.0 * j * j * lambda * lambda);
+      sum += sign * term;
+      if (term < (1e-16 * sum)) { break; }
+      sign = -sign;
+    }
+    return Math.max(0.0, Math.min(1.0, 2.0 * sum));
+  }
+
+  /**
+   * Complementary error function, with fractional error below 1.2e-7 (Numerical Recipes).
+   */
+  static double erfc(final double x) {
+    final double z = Math.abs(x);
+    final double t = 1.0 / (1.0 + (0.5 * z));
+    final double ans = t * Math.exp(-z * z - 1.26551223 + (t * (1.00002368 + (t * (0.37409196
+        + (t * (0.09678418 + (t * (-0.18628806 + (t * (0.27886807 + (t * (-1.13520398
+        + (t * (1.48851587 + (t * (-0.82215223 + (t * 0.17087277))))))))))))))))));
+    return (x >= 0) ? ans : 2.0 - ans;
+  }
+
+  // z such that P(Z > z) = tailProb for a standard normal Z, by bisection
+  static double normalQuantileUpper(final double tailProb) {
+    double lo = 0.0;
+    double hi = 40.0;
+    for (int i = 0; i < 100; ++i) {
+      final double mid = (lo + hi) / 2;
+      if ((0.5 * erfc(mid / Math.sqrt(2.0))) > tailProb) { lo = mid; } else { hi = mid; }
+    }
+    return (lo + hi) / 2;
+  }
+
+  /**
+   * Regularized upper incomplete gamma function Q(a, x), which gives the chi-square upper tail
+   * as Q(df / 2, chi2 / 2). Uses the series for x &lt; a + 1 and the continued fraction
+   * otherwise (Numerical Recipes gammq).
+   */
+  static double regularizedGammaQ(final double a, final double x) {
+    if (x <= 0) { return 1.0; }
+    final double logPrefix = (-x + (a * Math.log(x))) - logGamma(a);
+    if (x < (a + 1.0)) {
+      double ap = a;
+      double del = 1.0 / a;
+      double sum = del;
+      while (Math.abs(del) > (Math.abs(sum) * 1e-15)) {
+        ap += 1.0;
+        del *= x / ap;
+        sum += del;
+      }
+      return Math.max(0.0, 1.0 - (sum * Math.exp(logPrefix)));
+    }
+    final double fpmin = 1e-300;
+    double b = (x + 1.0) - a;
+    double c = 1.0 / fpmin;
+    double d = 1.0 / b;
+    double h = d;
+    for (int i = 1; i < 100000; ++i) {
+      final double an = -i * (i - a);
+      b += 2.0;
+      d = (an * d) + b;
+      if (Math.abs(d) < fpmin) { d = fpmin; }
+      c = b + (an / c);
+      if (Math.abs(c) < fpmin) { c = fpmin; }
+      d = 1.0 / d;
+      final double del = d * c;
+      h *= del;
+      if (Math.abs(del - 1.0) < 1e-15) { break; }
+    }
+    return Math.exp(logPrefix) * h;
+  }
+
+  // Lanczos approximation, g = 7, n = 9
+  static double logGamma(final double x) {
+    final double[] coef = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+        771.32342877765313, -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+        9.9843695780195716e-6, 1.5056327351493116e-7};
+    final double xm1 = x - 1.0;
+    double sum = coef[0];
+    for (int i = 1; i < coef.length; ++i) {
+      sum += coef[i] / (xm1 + i);
+    }
+    final double t = xm1 + 7.5;
+    return (0.5 * Math.log(2 * Math.PI)) + ((xm1 + 0.5) * Math.log(t)) - t + Math.log(sum);
+  }
+
+}
@@ -2,7 +2,9 @@ package com.yahoo.sketches.misc.sampling;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import com.yahoo.sketches.misc.LatencyHistogram;
 import com.yahoo.sketches.sampling.ReservoirItemsSketch;
 import com.yahoo.sketches.sampling.ReservoirItemsUnion;
 
@@ -17,6 +19,15 @@ public class UnionBenchmark {
    * @param args not used
    */
   public static void main(final String[] args) {
+    measureSequentialMerges();
+    System.out.println();
+    compareTreeUnion();
+  }
+
+  /**
+   * Measures the latency of each individual merge into a single ReservoirItemsUnion.
+   */
+  static void measureSequentialMerges() {
     final int[] kSet = {100, 1000, 10000, 100000, 1000000};
     //int[] kSet = {100, 1000, 10000};
     //int[] numSketchesSet = {100, 1000, 10000, 100000};
@@ -24,77 +35,172 @@ public class UnionBenchmark {
 
     final double[] mean = new double[1];
     final double[] stdev = new double[1];
+    final LatencyHistogram mergeHist = new LatencyHistogram();
 
+    System.out.println("Per-merge latency (ns), sequential fold:");
+    System.out.printf("%-12s%26s%16s%16s" + LatencyHistogram.getQuantilesHeader(12) + LS,
+        "k", "mean +- stdev (ns/merge)", "sketches", "heap (MB)");
     for (int k : kSet) {
       for (int numSketches : numSketchesSet) {
         if ((k * numSketches) > (1L << 28)) {
           continue;
-        } // limit to 2^30 bytes = 1GB of data
+        } // limit to 2^28 sampled items; see SketchFootprint for measured bytes per item
 
         //SamplingConfig sc = makeConfig(TARGET_TOTAL_SKETCH_ITEMS, kSet[k]);
         final SamplingConfig sc = makeConfig(numSketches, k);
         //long[] times = new long[sc.getNumIters()];
         final double[] times = new double[sc.getNumIters()];
 
-        // generate sketches
+        // generate sketches, measuring the heap they retain
+        final long heapBefore = SketchFootprint.getUsedHeapAfterGc();
         final List<ReservoirItemsSketch<Integer>> sketchList = ReservoirEntropy.generateSketches(sc);
+        final long sketchBytes = SketchFootprint.getUsedHeapAfterGc() - heapBefore;
 
         // run union, save execute time
+        mergeHist.reset();
         for (int i = 0; i < sc.getNumIters(); ++i) {
           final int startIdx = rand.nextInt(sc.getNumSketches()); // start on a random index
           //times[i] = unionSketchList(sketchList, startIdx, kSet[k]);
-          times[i] = unionSketchList(sketchList, startIdx, k) / (1.0 * sc.getNumSketches());
+          times[i] = unionSketchList(sketchList, startIdx, k, mergeHist)
+              / (1.0 * sc.getNumSketches());
         }
 
         updateStats(times, mean, stdev);
-        System.out.printf("k = %-7d:\t%f +- %f\t(%d sketches)" + LS,
-            k, mean[0], stdev[0], sc.getNumSketches());
+        System.out.printf("%-12d%26s%16d%16.1f" + mergeHist.toQuantilesString(12) + LS,
+            k, String.format("%.1f +- %.1f", mean[0], stdev[0]), sc.getNumSketches(),
+            sketchBytes / (double) (1 << 20));
+      }
+    }
+  }
+
+  /**
+   * Compares the sequential fold of all sketches into one union with a parallel tree reduction
+   * over a range of thread counts. Reports throughput in merges per second and the latency of a
+   * complete reduction (one query) in microseconds.
+   */
+  static void compareTreeUnion() {
+    final int[] kSet = {100, 1000, 10000};
+    final int[] numSketchesSet = {1000, 10000, 30000};
+    final int numQueries = 50;
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+    final LatencyHistogram queryHist = new LatencyHistogram();
+
+    System.out.println("Per-query latency (us), sequential fold vs. tree reduction:");
+    System.out.printf("%-8s%10s%8s%8s%16s" + LatencyHistogram.getQuantilesHeader(12) + LS,
+        "k", "sketches", "mode", "threads", "merges/s");
+    for (int k : kSet) {
+      for (int numSketches : numSketchesSet) {
+        if (((long) k * numSketches) > (1L << 26)) {
+          continue;
+        }
+
+        final SamplingConfig sc = makeConfig(numSketches, k);
+        final List<ReservoirItemsSketch<Integer>> sketchList
+            = ReservoirEntropy.generateSketches(sc);
+
+        runQueries(sketchList, k, 0, null, numQueries, queryHist); // warmup
+        runQueries(sketchList, k, 0, null, numQueries, queryHist);
+        System.out.printf("%-8d%10d%8s%8d%,16.0f" + queryHist.toQuantilesString(12) + LS,
+            k, numSketches, "seq", 1, getMergesPerSec(numSketches, queryHist));
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+          final ForkJoinPool pool = new ForkJoinPool(threads);
+          // leave each thread several leaves so work stealing can balance the tree
+          final int grain = Math.max(1, numSketches / (threads * 8));
+          runQueries(sketchList, k, grain, pool, numQueries, queryHist); // warmup
+          runQueries(sketchList, k, grain, pool, numQueries, queryHist);
+          System.out.printf("%-8d%10d%8s%8d%,16.0f" + queryHist.toQuantilesString(12) + LS,
+              k, numSketches, "tree", threads, getMergesPerSec(numSketches, queryHist));
+          pool.shutdown();
+        }
+      }
+    }
+  }
+
+  // Runs numQueries complete reductions, recording the latency of each in microseconds.
+  // A null pool selects the sequential fold.
+  private static void runQueries(final List<ReservoirItemsSketch<Integer>> sketchList,
+      final int k, final int grain, final ForkJoinPool pool, final int numQueries,
+      final LatencyHistogram queryHist) {
+    queryHist.reset();
+    final int numSketches = sketchList.size();
+    for (int q = 0; q < numQueries; ++q) {
+      final int startIdx = rand.nextInt(numSketches);
+      final long timeStart_ns = System.nanoTime();
+      final ReservoirItemsSketch<Integer> result;
+      if (pool == null) {
+        final ReservoirItemsUnion<Integer> riu = ReservoirItemsUnion.newInstance(k);
+        for (int i = 0; i < numSketches; ++i) {
+          riu.update(sketchList.get((startIdx + i) % numSketches));
+        }
+        result = riu.getResult();
+      } else {
+        result = ReservoirTreeUnion.union(sketchList, startIdx, k, grain, pool);
+      }
+      queryHist.record((System.nanoTime() - timeStart_ns) / 1000);
+      if (result.getNumSamples() > k) {
+        throw new IllegalStateException("Union returned more than k samples");
       }
     }
   }
 
+  private static double getMergesPerSec(final int numSketches, final LatencyHistogram queryHist) {
+    return (numSketches * 1e6) / queryHist.getMean();
+  }
+
   @SuppressWarnings("unused")
   private static int countNumSamples(final SamplingConfig sc) {
     final int[] kArr = sc.getKArray();
-    final int[] rangeArr = sc.getRangeSizeArray();
+    final long[] rangeArr = sc.getRangeSizeArray();
     int count = 0;
 
     for (int i = 0; i < kArr.length; ++i) {
-      count += Math.min(kArr[i], rangeArr[i]);
+      count += (int) Math.min(kArr[i], rangeArr[i]);
     }
 
     return count;
   }
 
-  private static SamplingConfig makeConfig(final int tgtItems, final int k) {
+  // Sketch populations with log-normally distributed input sizes around k
+  static SamplingConfig makeConfig(final int tgtItems, final int k) {
     final int numIters = 1000;
     //int numSketches = (int) Math.round(0.5 + 1.0 * tgtItems / k);
     final int numSketches = tgtItems;
 
     final int[] kArray = new int[numSketches];
-    final int[] rangeArray = new int[numSketches];
+    final long[] rangeArray = new long[numSketches];
 
     for (int i = 0; i < numSketches; ++i) {
       kArray[i] = k;
-      rangeArray[i] = (int) Math.round(Math.exp(rand.nextGaussian()) * k) + 1;
+      rangeArray[i] = Math.round(Math.exp(rand.nextGaussian()) * k) + 1;
     }
 
     return new SamplingConfig(numIters, numSketches, kArray, rangeArray);
   }
 
+  /**
+   * Unions the list of sketches in round-robin order, recording the latency of each individual
+   * merge into mergeHist.
+   *
+   * @return total time for all merges, in nanoseconds
+   */
   private static <T> long unionSketchList(final List<ReservoirItemsSketch<T>> sketches,
-      final int stIdx, final int k) {
+      final int stIdx, final int k, final LatencyHistogram mergeHist) {
     final ReservoirItemsUnion<T> riu = ReservoirItemsUnion.newInstance(k);
     final int numSketches = sketches.size();
 
-    final long timeStartMs = System.currentTimeMillis();
+    long totalTime_ns = 0;
     for (int i = 0; i < numSketches; ++i) {
       final int sketchIdx = (stIdx + i) % numSketches;
-      riu.update(sketches.get(sketchIdx));
+      final ReservoirItemsSketch<T> sketch = sketches.get(sketchIdx);
+      final long timeStart_ns = System.nanoTime();
+      riu.update(sketch);
+      final long mergeTime_ns = System.nanoTime() - timeStart_ns;
+      mergeHist.record(mergeTime_ns);
+      totalTime_ns += mergeTime_ns;
     }
-    final long timeEndMs = System.currentTimeMillis();
 
-    return timeEndMs - timeStartMs;
+    return totalTime_ns;
   }
 
   //static void updateStats(final long[] times,
@@ -4,151 +4,185 @@ import com.yahoo.sketches.sampling.ReservoirItemsSketch;
 import com.yahoo.sketches.sampling.ReservoirLongsSketch;
 
 public class UpdateBenchmark {
-  private static final String LS = System.lineSeparator();
   private static final int ACCEPT_BREAKPOINT = 2;
+  static final int WARMUP_ITERS = 20;
+  private static final int MIN_UPDATES_PER_TRIAL = 1 << 16;
+  private static final double Z_999 = 3.2905; // two-sided 99.9% normal quantile
+
+  private static long sink = 0; // keeps results live so the update loops cannot be removed
 
   /**
-   * Usage: UpdateBenchmark [numIters] [log2(k)]
-   * @param args 2 parameters: numIters followed by log2(k)
+   * Each phase of the reservoir fill is measured on its own. Every trial starts from freshly
+   * built sketches whose state at the start of the phase is set up outside the timed region.
+   */
+  enum Phase {
+    /** Initial reservoir fill: items 0 through k-1 */
+    PRIMING,
+    /** p(accept) &gt; 0.5: items k through (ACCEPT_BREAKPOINT * k) - 1 */
+    HIGH_P,
+    /** p(accept) &lt; 0.5: items ACCEPT_BREAKPOINT * k through n-1 */
+    LOW_P;
+
+    long startItem(final int k) {
+      switch (this) {
+        case PRIMING: return 0;
+        case HIGH_P:  return k;
+        default:      return (long) ACCEPT_BREAKPOINT * k;
+      }
+    }
+
+    long endItem(final int k, final long n) {
+      switch (this) {
+        case PRIMING: return k;
+        case HIGH_P:  return (long) ACCEPT_BREAKPOINT * k;
+        default:      return n;
+      }
+    }
+  }
+
+  /**
+   * Usage: UpdateBenchmark [numIters] [log2(k)] [max log2(k)]
+   * @param args numIters followed by log2(k), and optionally the largest log2(k) to sweep to
    */
   public static void main(final String[] args) {
     if (args.length < 2) {
-      System.err.println("Usage: UpdateBenchmark [numIters] [log2(k)]");
+      System.err.println("Usage: UpdateBenchmark [numIters] [log2(k)] [max log2(k)]");
+      return;
     }
-    //final int numIters = 1000;
     final int numIters = Integer.parseInt(args[0]);
-    final int lgk = Integer.parseInt(args[1]);
-    final int k = 1 << lgk;
-    println("Running " + numIters + " iterations with k=" + k + ":");
-    measureReservoirLongsSketch(numIters, k);
-    println(measureReservoirLongsSketch(numIters, k));
-
-    measureReservoirItemsSketch(numIters, k);
-    println(measureReservoirItemsSketch(numIters, k));
+    final int lgKlo = Integer.parseInt(args[1]);
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : lgKlo;
+    println("Running " + numIters + " measured iterations after " + WARMUP_ITERS
+        + " warmup iterations, lg(k) = " + lgKlo + " to " + lgKhi + ":");
+    println(getHeaderString());
+
+    for (int lgK = lgKlo; lgK <= lgKhi; ++lgK) {
+      final int k = 1 << lgK;
+      for (final Phase phase : Phase.values()) {
+        println(measureReservoirLongsSketch(numIters, k, phase));
+      }
+      for (final Phase phase : Phase.values()) {
+        println(measureReservoirItemsSketch(numIters, k, phase));
+      }
+    }
+    if (sink == 42) { println(""); } // make sure sink is read
   }
 
-  private static String measureReservoirLongsSketch(final int numIters, final int k) {
-    final int n = k << 4;
-
-    final long[] primingResults = new long[numIters];
-    final long[] pAcceptHighResults = new long[numIters];
-    final long[] pAcceptLowResults = new long[numIters];
-    final long[] totalResults = new long[numIters];
-
-    final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(k);
-
-    final int samplingBreakIdx = ACCEPT_BREAKPOINT * k; // p(accept) == 0.5, so measure update
-    // before/after here
-    long inputValue;
-
-    for (int iter = 0; iter < numIters; iter++) {
-      // initial reservoir fill
-      final long startUpdateTime_ns = System.nanoTime();
-      for (inputValue = 0; inputValue < k; ) { rls.update(inputValue++); }
-      final long primingTime_ns = System.nanoTime();
-
-      // p(accept) > 0.5
-      for (; inputValue < samplingBreakIdx; ) { rls.update(inputValue++); }
-      final long pAcceptHighTime_ns = System.nanoTime();
-
-      // p(accept) < 0.5
-      for (; inputValue < n; ) { rls.update(inputValue++); }
-      final long pAcceptLowTime_ns = System.nanoTime();
-
-      primingResults[iter] = primingTime_ns - startUpdateTime_ns;
-      pAcceptHighResults[iter] = pAcceptHighTime_ns - primingTime_ns;
-      pAcceptLowResults[iter] = pAcceptLowTime_ns - pAcceptHighTime_ns;
-      totalResults[iter] = pAcceptLowTime_ns - startUpdateTime_ns;
+  private static String measureReservoirLongsSketch(final int numIters, final int k,
+                                                    final Phase phase) {
+    final long n = (long) k << 4;
+    final long startItem = phase.startItem(k);
+    final long endItem = phase.endItem(k, n);
+    final int numSketches = getSketchesPerTrial(endItem - startItem);
+    final ReservoirLongsSketch[] sketches = new ReservoirLongsSketch[numSketches];
+    final double[] opsPerSec = new double[numIters];
+
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      // untimed setup: fresh sketches brought to the start of the phase
+      for (int s = 0; s < numSketches; ++s) {
+        final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(k);
+        for (long inputValue = 0; inputValue < startItem; ) { rls.update(inputValue++); }
+        sketches[s] = rls;
+      }
+
+      final long startTime_ns = System.nanoTime();
+      for (int s = 0; s < numSketches; ++s) {
+        final ReservoirLongsSketch rls = sketches[s];
+        for (long inputValue = startItem; inputValue < endItem; ) { rls.update(inputValue++); }
+      }
+      final long elapsed_ns = System.nanoTime() - startTime_ns;
+
+      for (final ReservoirLongsSketch rls : sketches) { sink += rls.getN(); }
+      if (iter >= 0) {
+        opsPerSec[iter] = ((endItem - startItem) * numSketches * 1e9) / elapsed_ns;
+      }
     }
 
-    return getStatsString(rls.getClass().getSimpleName(), k, n,
-            primingResults, pAcceptHighResults, pAcceptLowResults, totalResults);
+    return getStatsString(ReservoirLongsSketch.class.getSimpleName(), k, phase, opsPerSec);
   }
 
-  private static String measureReservoirItemsSketch(final int numIters, final int k) {
-    final int n = k << 4;
-
-    final long[] primingResults = new long[numIters];
-    final long[] pAcceptHighResults = new long[numIters];
-    final long[] pAcceptLowResults = new long[numIters];
-    final long[] totalResults = new long[numIters];
-
-    final ReservoirItemsSketch<Long> ris = ReservoirItemsSketch.newInstance(k);
-
-    final int samplingBreakIdx = ACCEPT_BREAKPOINT * k; // p(accept) == 0.5, so measure update
-    // before/after here
-    long inputValue;
+  private static String measureReservoirItemsSketch(final int numIters, final int k,
+                                                    final Phase phase) {
+    final long n = (long) k << 4;
+    final long startItem = phase.startItem(k);
+    final long endItem = phase.endItem(k, n);
+    final int numSketches = getSketchesPerTrial(endItem - startItem);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final ReservoirItemsSketch<Long>[] sketches = new ReservoirItemsSketch[numSketches];
+    final double[] opsPerSec = new double[numIters];
+
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      // untimed setup: fresh sketches brought to the start of the phase
+      for (int s = 0; s < numSketches; ++s) {
+        final ReservoirItemsSketch<Long> ris = ReservoirItemsSketch.newInstance(k);
+        for (long inputValue = 0; inputValue < startItem; ) { ris.update(inputValue++); }
+        sketches[s] = ris;
+      }
+
+      final long startTime_ns = System.nanoTime();
+      for (int s = 0; s < numSketches; ++s) {
+        final ReservoirItemsSketch<Long> ris = sketches[s];
+        for (long inputValue = startItem; inputValue < endItem; ) { ris.update(inputValue++); }
+      }
+      final long elapsed_ns = System.nanoTime() - startTime_ns;
+
+      for (final ReservoirItemsSketch<Long> ris : sketches) { sink += ris.getN(); }
+      if (iter >= 0) {
+        opsPerSec[iter] = ((endItem - startItem) * numSketches * 1e9) / elapsed_ns;
+      }
+    }
 
-    for (int iter = 0; iter < numIters; iter++) {
-      // initial reservoir fill
-      final long startUpdateTime_ns = System.nanoTime();
-      for (inputValue = 0; inputValue < k; ) { ris.update(inputValue++); }
-      final long primingTime_ns = System.nanoTime();
+    return getStatsString(ReservoirItemsSketch.class.getSimpleName(), k, phase, opsPerSec);
+  }
 
-      // p(accept) > 0.5
-      for (; inputValue < samplingBreakIdx; ) { ris.update(inputValue++); }
-      final long pAcceptHighTime_ns = System.nanoTime();
+  // Short phases (small k) are repeated over several sketches so a trial is long enough to time
+  static int getSketchesPerTrial(final long updatesPerSketch) {
+    return (int) Math.max(1, MIN_UPDATES_PER_TRIAL / updatesPerSketch);
+  }
 
-      // p(accept) < 0.5
-      for (; inputValue < n; ) { ris.update(inputValue++); }
-      final long pAcceptLowTime_ns = System.nanoTime();
+  static String getHeaderString() {
+    return String.format("%-28s %10s %8s %16s %14s %12s %14s",
+        "Sketch", "k", "Phase", "ops/s", "+/- 99.9% CI", "ns/update", "+/- 99.9% CI");
+  }
 
-      primingResults[iter] = primingTime_ns - startUpdateTime_ns;
-      pAcceptHighResults[iter] = pAcceptHighTime_ns - primingTime_ns;
-      pAcceptLowResults[iter] = pAcceptLowTime_ns - pAcceptHighTime_ns;
-      totalResults[iter] = pAcceptLowTime_ns - startUpdateTime_ns;
+  static String getStatsString(final String simpleName,
+                               final int k,
+                               final Phase phase,
+                               final double[] opsPerSec) {
+    // ns/update is averaged per iteration too: 1e9 / mean(ops/s) would be the harmonic mean
+    final double[] nsPerUpdate = new double[opsPerSec.length];
+    for (int i = 0; i < opsPerSec.length; ++i) {
+      nsPerUpdate[i] = 1e9 / opsPerSec[i];
     }
-
-    return getStatsString(ris.getClass().getSimpleName(), k, n,
-            primingResults, pAcceptHighResults, pAcceptLowResults, totalResults);
+    final double meanOps = computeMean(opsPerSec);
+    final double meanNs = computeMean(nsPerUpdate);
+    return String.format("%-28s %10d %8s %,16.0f %,14.0f %12.2f %14.2f",
+        simpleName, k, phase, meanOps, computeCiHalfWidth(opsPerSec, meanOps), meanNs,
+        computeCiHalfWidth(nsPerUpdate, meanNs));
   }
 
-  private static String getStatsString(final String simpleName,
-                               final int k,
-                               final int n,
-                               final long[] priming,
-                               final long[] pAcceptHigh,
-                               final long[] pAcceptLow,
-                               final long[] total) {
-    final double meanPriming = computeMean(priming);
-    final double meanAcceptHigh = computeMean(pAcceptHigh);
-    final double meanAcceptLow = computeMean(pAcceptLow);
-    final double meanTotal = computeMean(total);
-
-    final StringBuilder sb = new StringBuilder();
-    sb.append("### Results for ").append(simpleName).append(LS);
-    sb.append("  iterations: ").append(priming.length).append(LS);
-    sb.append("  k         : ").append(k).append(LS);
-    sb.append("  n         : ").append(n).append(LS);
-    sb.append("  priming update (ns)       : ").append(meanPriming).append(LS);
-    sb.append("  high p(accept) update (ns): ").append(meanAcceptHigh).append(LS);
-    sb.append("  low p(accept) update (ns) : ").append(meanAcceptLow).append(LS);
-    sb.append("  total update (ns)         : ").append(meanTotal).append(LS);
-    sb.append("  priming per update (ns)   : ").append(meanPriming / k).append(LS);
-    sb.append("  high p per update (ns)    : ")
-      .append(meanAcceptHigh / ((ACCEPT_BREAKPOINT - 1) * k)).append(LS);
-    sb.append("  low p per update (ns)     : ")
-      .append(meanAcceptLow / (n - (ACCEPT_BREAKPOINT * k))).append(LS);
-    sb.append("  total per update (ns)     : ").append(meanTotal / n).append(LS);
-    return sb.toString();
+  // half-width of the 99.9% confidence interval of the mean
+  private static double computeCiHalfWidth(final double[] data, final double mean) {
+    return (data.length > 1)
+        ? (Z_999 * computeStDev(data, mean)) / Math.sqrt(data.length)
+        : Double.NaN;
   }
 
-  // being inefficient since squaring ns times seems likely to overflow
-  private static double computeMean(final long[] data) {
-    long sum = 0;
-    for (long item : data) {
+  private static double computeMean(final double[] data) {
+    double sum = 0;
+    for (double item : data) {
       sum += item;
     }
-    return (double) sum / data.length;
+    return sum / data.length;
   }
 
-  @SuppressWarnings("unused")
-  private static double computeStDev(final long[] data, final double mean) {
+  // sample standard deviation
+  private static double computeStDev(final double[] data, final double mean) {
     double diff = 0;
-    for (long item : data) {
+    for (double item : data) {
       diff += Math.pow(item - mean, 2);
     }
-    return Math.sqrt(diff / data.length);
+    return Math.sqrt(diff / (data.length - 1));
   }
 
   private static void println(final String msg) {
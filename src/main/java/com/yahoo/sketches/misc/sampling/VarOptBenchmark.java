@@ -0,0 +1,183 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static com.yahoo.sketches.misc.sampling.UpdateBenchmark.WARMUP_ITERS;
+import static com.yahoo.sketches.misc.sampling.UpdateBenchmark.getSketchesPerTrial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.sketches.misc.LatencyHistogram;
+import com.yahoo.sketches.misc.sampling.UpdateBenchmark.Phase;
+import com.yahoo.sketches.sampling.VarOptItemsSketch;
+import com.yahoo.sketches.sampling.VarOptItemsUnion;
+
+/**
+ * Update and union throughput of weighted (VarOpt) sampling.
+ *
+ * <p>Updates are measured with the same phases as UpdateBenchmark, and unions over the same
+ * log-normally sized sketch populations as UnionBenchmark. Each is repeated for several weight
+ * distributions: heavy-tailed weights put more items in the sketch's heavy (H) region, which
+ * changes the cost of both update and merge.
+ */
+public class VarOptBenchmark {
+  private static final String LS = System.lineSeparator();
+  private static final Random rand = new Random(1234);
+
+  private static long sink = 0; // keeps results live so the measured loops cannot be removed
+
+  /**
+   * Distributions of item weights, from uniform to very heavy-tailed.
+   */
+  enum WeightDist {
+    CONSTANT,
+    EXPONENTIAL,
+    PARETO_2_0,
+    PARETO_1_1;
+
+    double next(final Random r) {
+      switch (this) {
+        case CONSTANT:    return 1.0;
+        case EXPONENTIAL: return -Math.log(1.0 - r.nextDouble());
+        case PARETO_2_0:  return Math.pow(1.0 - r.nextDouble(), -1.0 / 2.0);
+        default:          return Math.pow(1.0 - r.nextDouble(), -1.0 / 1.1);
+      }
+    }
+
+    double[] nextArray(final Random r, final int len) {
+      final double[] weights = new double[len];
+      for (int i = 0; i < len; ++i) { weights[i] = next(r); }
+      return weights;
+    }
+  }
+
+  /**
+   * Usage: VarOptBenchmark [numIters] [log2(k)] [max log2(k)]
+   * @param args numIters followed by log2(k), and optionally the largest log2(k) to sweep to
+   */
+  public static void main(final String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: VarOptBenchmark [numIters] [log2(k)] [max log2(k)]");
+      return;
+    }
+    final int numIters = Integer.parseInt(args[0]);
+    final int lgKlo = Integer.parseInt(args[1]);
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : lgKlo;
+
+    println("### VarOptItemsSketch update, " + numIters + " measured iterations after "
+        + WARMUP_ITERS + " warmup iterations:");
+    println(UpdateBenchmark.getHeaderString());
+    for (int lgK = lgKlo; lgK <= lgKhi; ++lgK) {
+      for (final WeightDist dist : WeightDist.values()) {
+        for (final Phase phase : Phase.values()) {
+          println(measureUpdate(numIters, 1 << lgK, phase, dist));
+        }
+      }
+    }
+
+    println(LS + "### VarOptItemsUnion merge, " + numIters + " unions of 1000 sketches:");
+    println(String.format("%-14s%10s%14s%14s", "Weights", "k", "ns/merge", "ns/getResult")
+        + LatencyHistogram.getQuantilesHeader(12));
+    for (int lgK = lgKlo; lgK <= lgKhi; ++lgK) {
+      for (final WeightDist dist : WeightDist.values()) {
+        println(measureUnion(numIters, 1000, 1 << lgK, dist));
+      }
+    }
+    if (sink == 42) { println(""); } // make sure sink is read
+  }
+
+  private static String measureUpdate(final int numIters, final int k, final Phase phase,
+                                      final WeightDist dist) {
+    final long n = (long) k << 4;
+    final int startItem = (int) phase.startItem(k);
+    final int endItem = (int) phase.endItem(k, n);
+    final int numSketches = getSketchesPerTrial(endItem - startItem);
+    final double[] weights = dist.nextArray(rand, endItem); // generated outside timed regions
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final VarOptItemsSketch<Long>[] sketches = new VarOptItemsSketch[numSketches];
+    final double[] opsPerSec = new double[numIters];
+
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      // untimed setup: fresh sketches brought to the start of the phase
+      for (int s = 0; s < numSketches; ++s) {
+        final VarOptItemsSketch<Long> vis = VarOptItemsSketch.newInstance(k);
+        for (int i = 0; i < startItem; ++i) { vis.update((long) i, weights[i]); }
+        sketches[s] = vis;
+      }
+
+      final long startTime_ns = System.nanoTime();
+      for (int s = 0; s < numSketches; ++s) {
+        final VarOptItemsSketch<Long> vis = sketches[s];
+        for (int i = startItem; i < endItem; ++i) { vis.update((long) i, weights[i]); }
+      }
+      final long elapsed_ns = System.nanoTime() - startTime_ns;
+
+      for (final VarOptItemsSketch<Long> vis : sketches) { sink += vis.getN(); }
+      if (iter >= 0) {
+        opsPerSec[iter] = ((endItem - startItem) * (double) numSketches * 1e9) / elapsed_ns;
+      }
+    }
+
+    return UpdateBenchmark.getStatsString("VarOpt " + dist, k, phase, opsPerSec);
+  }
+
+  private static String measureUnion(final int numIters, final int numSketches, final int k,
+                                     final WeightDist dist) {
+    final SamplingConfig sc = UnionBenchmark.makeConfig(numSketches, k);
+    final List<VarOptItemsSketch<Long>> sketchList = generateSketches(sc, dist);
+    final LatencyHistogram mergeHist = new LatencyHistogram();
+    long mergeTime_ns = 0;
+    long resultTime_ns = 0;
+
+    for (int iter = -WARMUP_ITERS; iter < numIters; ++iter) {
+      if (iter == 0) {
+        mergeHist.reset();
+        mergeTime_ns = 0;
+        resultTime_ns = 0;
+      }
+      final int stIdx = rand.nextInt(numSketches);
+      final VarOptItemsUnion<Long> vou = VarOptItemsUnion.newInstance(k);
+      for (int i = 0; i < numSketches; ++i) {
+        final VarOptItemsSketch<Long> sketch = sketchList.get((stIdx + i) % numSketches);
+        final long startTime_ns = System.nanoTime();
+        vou.update(sketch);
+        final long elapsed_ns = System.nanoTime() - startTime_ns;
+        mergeHist.record(elapsed_ns);
+        mergeTime_ns += elapsed_ns;
+      }
+      final long startTime_ns = System.nanoTime();
+      final VarOptItemsSketch<Long> result = vou.getResult();
+      resultTime_ns += System.nanoTime() - startTime_ns;
+      sink += result.getN();
+    }
+
+    return String.format("%-14s%10d%,14.1f%,14.1f", dist, k,
+        mergeTime_ns / ((double) numIters * numSketches), resultTime_ns / (double) numIters)
+        + mergeHist.toQuantilesString(12);
+  }
+
+  // Same populations as UnionBenchmark, with weights drawn from dist
+  static List<VarOptItemsSketch<Long>> generateSketches(final SamplingConfig sc,
+                                                        final WeightDist dist) {
+    final List<VarOptItemsSketch<Long>> sketchList = new ArrayList<>(sc.getNumSketches());
+
+    long idx = 0;
+    for (int i = 0; i < sc.getNumSketches(); ++i) {
+      final int k = sc.hasMultipleK() ? sc.getK(i) : sc.getK();
+      final long rangeMax = sc.getRangeSize(sc.hasMultipleK() ? i : 0);
+
+      final VarOptItemsSketch<Long> vis = VarOptItemsSketch.newInstance(k);
+      for (long j = 0; j < rangeMax; ++j) {
+        vis.update(idx++, dist.next(rand));
+      }
+
+      sketchList.add(vis);
+    }
+
+    return sketchList;
+  }
+
+  private static void println(final String msg) {
+    System.out.println(msg);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.serde;
+
+import static com.yahoo.sketches.misc.BatchTimer.nsPerOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yahoo.memory.Memory;
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.ArrayOfLongsSerDe;
+import com.yahoo.sketches.ArrayOfStringsSerDe;
+import com.yahoo.sketches.Family;
+import com.yahoo.sketches.hll.HllSketch;
+import com.yahoo.sketches.hll.TgtHllType;
+import com.yahoo.sketches.quantiles.DoublesSketch;
+import com.yahoo.sketches.quantiles.UpdateDoublesSketch;
+import com.yahoo.sketches.sampling.ReservoirItemsSketch;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+import com.yahoo.sketches.theta.Sketch;
+import com.yahoo.sketches.theta.Sketches;
+import com.yahoo.sketches.theta.UpdateSketch;
+
+/**
+ * Measures the cost of moving sketches in and out of their serialized form, across sketch
+ * families and sizes, with the image on the Java heap or in direct (off-heap) memory.
+ *
+ * <p>For every case this reports the serialized size and the time of toByteArray, heapify and,
+ * where the family supports it, wrap. Because wrap defers work until the sketch is read, the
+ * last two columns also time heapify and wrap followed by one typical query, which is the fair
+ * comparison for a merge or query tier.
+ */
+public final class SerDeBenchmark {
+  private static final String LS = System.getProperty("line.separator");
+
+  private SerDeBenchmark() {}
+
+  /**
+   * One sketch family and configuration, built from n items.
+   */
+  abstract static class SerDeCase {
+    final String name;
+
+    SerDeCase(final String name) {
+      this.name = name;
+    }
+
+    /**
+     * Serializes the source sketch. Called repeatedly, so must not change the source.
+     * @return the serialized image
+     */
+    abstract byte[] toByteArray();
+
+    abstract Object heapify(Memory mem);
+
+    /**
+     * @param mem the serialized image
+     * @return the wrapped sketch, or null if the family cannot wrap this image
+     */
+    Object wrap(final WritableMemory mem) {
+      return null;
+    }
+
+    /**
+     * @param imageBytes the size of the serialized image
+     * @return the size of the memory region the image is placed in, which may leave room to grow
+     */
+    int getMemoryBytes(final int imageBytes) {
+      return imageBytes;
+    }
+
+    /**
+     * Runs one typical query on a heapified or wrapped sketch.
+     * @param sketch the sketch returned by heapify or wrap
+     * @return the query result
+     */
+    abstract double query(Object sketch);
+  }
+
+  /**
+   * @param args not used
+   */
+  public static void main(final String[] args) {
+    final int[] lgNs = {8, 12, 16, 20};
+    System.out.println(String.format("%-26s%10s%8s%12s%14s%14s%12s%14s%12s%16s%16s",
+        "Sketch", "n", "memory", "bytes", "toByteArray", "heapify", "MB/s", "wrap", "MB/s",
+        "heapify+query", "wrap+query") + LS + "(times in ns/sketch)");
+    for (SerDeCase sdc : makeCases(1 << lgNs[0])) { // warmup
+      measure(sdc, 1 << lgNs[0], false);
+      measure(sdc, 1 << lgNs[0], true);
+    }
+    for (int lgN : lgNs) {
+      for (SerDeCase sdc : makeCases(1 << lgN)) {
+        System.out.println(measure(sdc, 1 << lgN, false));
+        System.out.println(measure(sdc, 1 << lgN, true));
+      }
+    }
+  }
+
+  static List<SerDeCase> makeCases(final int n) {
+    final List<SerDeCase> cases = new ArrayList<>();
+    final int lgK = 12;
+
+    final UpdateSketch theta = Sketches.updateSketchBuilder().setNominalEntries(1 << lgK)
+        .setFamily(Family.QUICKSELECT).build();
+    for (long i = 0; i < n; ++i) { theta.update(i); }
+    final Sketch thetaCompact = theta.compact(true, null);
+
+    cases.add(new SerDeCase("Theta compact ordered") {
+      @Override byte[] toByteArray() { return thetaCompact.toByteArray(); }
+      @Override Object heapify(final Memory mem) { return Sketches.heapifySketch(mem); }
+      @Override Object wrap(final WritableMemory mem) { return Sketches.wrapSketch(mem); }
+      @Override double query(final Object sk) { return ((Sketch) sk).getEstimate(); }
+    });
+
+    cases.add(new SerDeCase("Theta updatable") {
+      @Override byte[] toByteArray() { return theta.toByteArray(); }
+      @Override Object heapify(final Memory mem) { return Sketches.heapifyUpdateSketch(mem); }
+      @Override Object wrap(final WritableMemory mem) { return Sketches.wrapUpdateSketch(mem); }
+      @Override double query(final Object sk) { return ((Sketch) sk).getEstimate(); }
+    });
+
+    for (final TgtHllType type : TgtHllType.values()) {
+      final HllSketch hll = new HllSketch(lgK, type);
+      for (long i = 0; i < n; ++i) { hll.update(i); }
+      cases.add(new SerDeCase("HLL updatable " + type) {
+        @Override byte[] toByteArray() { return hll.toUpdatableByteArray(); }
+        @Override int getMemoryBytes(final int imageBytes) {
+          return HllSketch.getMaxUpdatableSerializationBytes(lgK, type);
+        }
+        @Override Object heapify(final Memory mem) { return HllSketch.heapify(mem); }
+        @Override Object wrap(final WritableMemory mem) { return HllSketch.writableWrap(mem); }
+        @Override double query(final Object sk) { return ((HllSketch) sk).getEstimate(); }
+      });
+      cases.add(new SerDeCase("HLL compact " + type) {
+        @Override byte[] toByteArray() { return hll.toCompactByteArray(); }
+        @Override Object heapify(final Memory mem) { return HllSketch.heapify(mem); }
+        @Override Object wrap(final WritableMemory mem) { return HllSketch.wrap(mem); }
+        @Override double query(final Object sk) { return ((HllSketch) sk).getEstimate(); }
+      });
+    }
+
+    final UpdateDoublesSketch quantiles = DoublesSketch.builder().setK(128).build();
+    for (int i = 0; i < n; ++i) { quantiles.update(i); }
+
+    cases.add(new SerDeCase("Doubles updatable") {
+      @Override byte[] toByteArray() { return quantiles.toByteArray(false); }
+      @Override Object heapify(final Memory mem) { return DoublesSketch.heapify(mem); }
+      @Override Object wrap(final WritableMemory mem) { return DoublesSketch.wrap(mem); }
+      @Override double query(final Object sk) { return ((DoublesSketch) sk).getQuantile(0.5); }
+    });
+    cases.add(new SerDeCase("Doubles compact") {
+      @Override byte[] toByteArray() { return quantiles.toByteArray(true); }
+      @Override Object heapify(final Memory mem) { return DoublesSketch.heapify(mem); }
+      @Override Object wrap(final WritableMemory mem) { return DoublesSketch.wrap(mem); }
+      @Override double query(final Object sk) { return ((DoublesSketch) sk).getQuantile(0.5); }
+    });
+
+    final int resK = 1024;
+    final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(resK);
+    final ReservoirItemsSketch<Long> risLong = ReservoirItemsSketch.newInstance(resK);
+    final ReservoirItemsSketch<String> risString = ReservoirItemsSketch.newInstance(resK);
+    for (long i = 0; i < n; ++i) {
+      rls.update(i);
+      risLong.update(i);
+      risString.update(Long.toHexString(i));
+    }
+    final ArrayOfLongsSerDe longsSerDe = new ArrayOfLongsSerDe();
+    final ArrayOfStringsSerDe stringsSerDe = new ArrayOfStringsSerDe();
+
+    cases.add(new SerDeCase("Reservoir longs") {
+      @Override byte[] toByteArray() { return rls.toByteArray(); }
+      @Override Object heapify(final Memory mem) { return ReservoirLongsSketch.heapify(mem); }
+      @Override double query(final Object sk) { return ((ReservoirLongsSketch) sk).getN(); }
+    });
+    cases.add(new SerDeCase("Reservoir items<Long>") {
+      @Override byte[] toByteArray() { return risLong.toByteArray(longsSerDe); }
+      @Override Object heapify(final Memory mem) {
+        return ReservoirItemsSketch.heapify(mem, longsSerDe);
+      }
+      @Override double query(final Object sk) { return ((ReservoirItemsSketch<?>) sk).getN(); }
+    });
+    cases.add(new SerDeCase("Reservoir items<String>") {
+      @Override byte[] toByteArray() { return risString.toByteArray(stringsSerDe); }
+      @Override Object heapify(final Memory mem) {
+        return ReservoirItemsSketch.heapify(mem, stringsSerDe);
+      }
+      @Override double query(final Object sk) { return ((ReservoirItemsSketch<?>) sk).getN(); }
+    });
+
+    return cases;
+  }
+
+  private static String measure(final SerDeCase sdc, final int n, final boolean direct) {
+    final byte[] bytes = sdc.toByteArray();
+    final int memBytes = sdc.getMemoryBytes(bytes.length);
+    final WritableDirectHandle handle = direct ? WritableMemory.allocateDirect(memBytes) : null;
+    try {
+      final WritableMemory mem = direct ? handle.get() : WritableMemory.allocate(memBytes);
+      mem.putByteArray(0, bytes, 0, bytes.length);
+
+      final double serNs = nsPerOp(() -> sdc.toByteArray().length);
+      final double heapifyNs = nsPerOp(() -> sdc.heapify(mem).hashCode());
+      final double heapifyQueryNs = nsPerOp(() -> sdc.query(sdc.heapify(mem)));
+      final boolean canWrap = sdc.wrap(mem) != null;
+      final double wrapNs = canWrap ? nsPerOp(() -> sdc.wrap(mem).hashCode()) : Double.NaN;
+      final double wrapQueryNs = canWrap ? nsPerOp(() -> sdc.query(sdc.wrap(mem))) : Double.NaN;
+
+      return String.format("%-26s%10d%8s%,12d%,14.0f%,14.0f%,12.0f%14s%12s%,16.0f%16s",
+          sdc.name, n, direct ? "direct" : "heap", bytes.length, serNs, heapifyNs,
+          mbPerSec(bytes.length, heapifyNs), fmt(wrapNs, "%,.0f"),
+          fmt(mbPerSec(bytes.length, wrapNs), "%,.0f"), heapifyQueryNs, fmt(wrapQueryNs, "%,.0f"));
+    } finally {
+      if (handle != null) { handle.close(); }
+    }
+  }
+
+  static double mbPerSec(final int bytes, final double nsPerOp) {
+    return (bytes * 1e9) / (nsPerOp * (1 << 20));
+  }
+
+  private static String fmt(final double value, final String format) {
+    return Double.isNaN(value) ? "-" : String.format(format, value);
+  }
+
+}
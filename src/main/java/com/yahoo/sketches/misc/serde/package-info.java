@@ -0,0 +1,10 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+/**
+ * Benchmarks of serializing and deserializing sketches.
+ */
+
+package com.yahoo.sketches.misc.serde;
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.theta;
+
+import static com.yahoo.sketches.misc.BatchTimer.nsPerOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.theta.AnotB;
+import com.yahoo.sketches.theta.CompactSketch;
+import com.yahoo.sketches.theta.Intersection;
+import com.yahoo.sketches.theta.SetOperation;
+import com.yahoo.sketches.theta.Sketch;
+import com.yahoo.sketches.theta.Sketches;
+import com.yahoo.sketches.theta.Union;
+import com.yahoo.sketches.theta.UpdateSketch;
+
+/**
+ * Measures the cost of the theta set operations Union, Intersection and AnotB over a range of
+ * operand counts and overlap fractions, with the operands in each of the forms of Input and the
+ * result compacted ordered or unordered.
+ *
+ * <p>Every operand sees n distinct values. The first overlap * n of them are the same for all
+ * operands and the rest are its own, so the exact union has shared + m * (n - shared) values,
+ * the exact intersection has the shared values, and A not B has n - shared values. AnotB with
+ * m operands removes the other m - 1 operands from the first one by one, feeding each result to
+ * the next step.
+ *
+ * <p>One operation builds its SetOperation, updates it with all m operands and gets the result,
+ * as a query would. The table gives ns per operation and per operand, and the size of the result:
+ * its retained entries, compact bytes, and estimate next to the exact count.
+ *
+ * <p>Ordering matters in two places. An ordered compact operand lets Intersection and AnotB stop
+ * early once the hashes pass theta, where an unordered one must be scanned in full. An ordered
+ * result costs a sort of its retained entries that an unordered one does not.
+ *
+ * <p>Usage: SetOperationBenchmark [lgK] [lgN], by default k = 4096 and n = 2^16.
+ */
+public final class SetOperationBenchmark {
+  private static final String LS = System.getProperty("line.separator");
+  private static final int[] NUM_OPERANDS = {2, 8, 32};
+  private static final double[] OVERLAPS = {0.01, 0.1, 0.5, 0.9};
+
+  private SetOperationBenchmark() {}
+
+  /** The forms in which the operands are given to the set operations */
+  enum Input {
+    /** the UpdateSketch itself, an unordered hash table */
+    UPDATE,
+    /** an unordered heap CompactSketch */
+    UNORDERED,
+    /** an ordered heap CompactSketch */
+    ORDERED,
+    /** the image of an ordered CompactSketch in direct memory, wrapped with Sketch.wrap() */
+    WRAPPED
+  }
+
+  /** The set operations */
+  enum Op { UNION, INTERSECTION, ANOTB }
+
+  /**
+   * @param args see the class description
+   */
+  public static void main(final String[] args) {
+    final int lgK = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+    final int lgN = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+    final int k = 1 << lgK;
+    final int n = 1 << lgN;
+
+    System.out.printf("k = %,d, n = %,d per operand" + LS, k, n);
+    System.out.printf("%-14s%6s%9s%11s%11s%14s%14s%10s%12s%14s%14s" + LS, "op", "m", "overlap",
+        "input", "result", "ns/op", "ns/operand", "retained", "bytes", "estimate", "exact");
+    for (int m : NUM_OPERANDS) {
+      for (double overlap : OVERLAPS) {
+        final int shared = (int) (overlap * n);
+        final List<UpdateSketch> sketches = new ArrayList<>(m);
+        for (int i = 0; i < m; ++i) {
+          final UpdateSketch sk = Sketches.updateSketchBuilder().setNominalEntries(k).build();
+          for (long v = 0; v < shared; ++v) { sk.update(v); }
+          // each operand's own values start at a distinct multiple of 2^40
+          final long base = (i + 1L) << 40;
+          for (long v = shared; v < n; ++v) { sk.update(base + v); }
+          sketches.add(sk);
+        }
+
+        long imageBytes = 0;
+        for (Sketch sk : sketches) { imageBytes += sk.getCurrentBytes(true); }
+        try (WritableDirectHandle handle = WritableMemory.allocateDirect(imageBytes)) {
+          for (Input input : Input.values()) {
+            final Sketch[] operands = toOperands(sketches, input, handle.get());
+            for (Op op : Op.values()) {
+              final long exact = (op == Op.UNION) ? shared + ((long) m * (n - shared))
+                  : (op == Op.INTERSECTION) ? shared : n - shared;
+              for (final boolean ordered : new boolean[] {true, false}) {
+                final CompactSketch result = run(op, operands, k, ordered);
+                final double ns = nsPerOp(() -> run(op, operands, k, ordered).getEstimate());
+                System.out.printf("%-14s%6d%9.2f%11s%11s%,14.0f%,14.0f%,10d%,12d%,14.0f%,14d" + LS,
+                    op, m, overlap, input, ordered ? "ordered" : "unordered", ns, ns / m,
+                    result.getRetainedEntries(), result.getCurrentBytes(true),
+                    result.getEstimate(), exact);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Puts the sketches into the given form, writing the images for WRAPPED into mem
+  private static Sketch[] toOperands(final List<UpdateSketch> sketches, final Input input,
+                                     final WritableMemory mem) {
+    final Sketch[] operands = new Sketch[sketches.size()];
+    long offset = 0;
+    for (int i = 0; i < operands.length; ++i) {
+      final UpdateSketch sk = sketches.get(i);
+      switch (input) {
+        case UPDATE:
+          operands[i] = sk;
+          break;
+        case UNORDERED:
+          operands[i] = sk.compact(false, null);
+          break;
+        case ORDERED:
+          operands[i] = sk.compact(true, null);
+          break;
+        default:
+          final int bytes = sk.getCurrentBytes(true);
+          final WritableMemory region = mem.writableRegion(offset, bytes);
+          sk.compact(true, region);
+          operands[i] = Sketch.wrap(region);
+          offset += bytes;
+          break;
+      }
+    }
+    return operands;
+  }
+
+  private static CompactSketch run(final Op op, final Sketch[] operands, final int k,
+                                   final boolean ordered) {
+    switch (op) {
+      case UNION: {
+        final Union union = SetOperation.builder().setNominalEntries(k).buildUnion();
+        for (Sketch sk : operands) { union.update(sk); }
+        return union.getResult(ordered, null);
+      }
+      case INTERSECTION: {
+        final Intersection inter = SetOperation.builder().buildIntersection();
+        for (Sketch sk : operands) { inter.update(sk); }
+        return inter.getResult(ordered, null);
+      }
+      default: {
+        final AnotB aNotB = SetOperation.builder().buildANotB();
+        Sketch a = operands[0];
+        for (int i = 1; i < operands.length; ++i) {
+          aNotB.update(a, operands[i]);
+          a = aNotB.getResult(ordered, null);
+        }
+        return (CompactSketch) a;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.misc.hll;
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class CollisionThresholdTableTest {
+
+  @Test
+  public void checkRoundTrip() {
+    final CollisionThresholdTable table = CollisionThresholdTable.compute(4, 8, 1, 3);
+    final CollisionThresholdTable copy = CollisionThresholdTable.heapify(table.toByteArray());
+    assertEquals(copy.getLgKlo(), 4);
+    assertEquals(copy.getLgKhi(), 8);
+    assertEquals(copy.getKFactors(), new int[] {1, 3});
+    for (int lgK = 4; lgK <= 8; ++lgK) {
+      for (int kFactor : new int[] {1, 3}) {
+        final int[] expected = KevinsQuantizationModel.crossingNs(lgK, kFactor);
+        for (int kappa = CollisionThresholdTable.MIN_KAPPA;
+             kappa <= CollisionThresholdTable.MAX_KAPPA; ++kappa) {
+          assertEquals(copy.getCrossingN(lgK, kFactor, kappa),
+              expected[kappa - CollisionThresholdTable.MIN_KAPPA]);
+        }
+      }
+    }
+    assertEquals(copy.toDelimitedString(","), table.toDelimitedString(","));
+  }
+
+  @Test
+  public void checkLowestLgK() {
+    final int lgK = CollisionThresholdTable.MIN_LG_K;
+    final CollisionThresholdTable table = CollisionThresholdTable.compute(lgK, lgK, 1, 2, 3);
+    for (int kFactor = 1; kFactor <= 3; ++kFactor) {
+      final double bitmapSize = (double) kFactor * (1 << lgK);
+      for (int kappa = CollisionThresholdTable.MIN_KAPPA;
+           kappa <= CollisionThresholdTable.MAX_KAPPA; ++kappa) {
+        assertEquals(table.getCrossingN(lgK, kFactor, kappa),
+            KevinsQuantizationModel.linearCrossingN(kappa, bitmapSize));
+      }
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkBelowLowestLgK() {
+    CollisionThresholdTable.compute(CollisionThresholdTable.MIN_LG_K - 1,
+        CollisionThresholdTable.MIN_LG_K, 1);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkNotInTable() {
+    CollisionThresholdTable.compute(4, 5, 2).getCrossingN(4, 1, 0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkDuplicateKFactors() {
+    CollisionThresholdTable.compute(4, 5, 2, 2);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkTruncated() {
+    final byte[] bytes = CollisionThresholdTable.compute(4, 5, 1).toByteArray();
+    CollisionThresholdTable.heapify(Arrays.copyOf(bytes, bytes.length - 2));
+  }
+
+  @Test
+  public void checkCorruptKFactors() {
+    final byte[] bytes = CollisionThresholdTable.compute(4, 5, 1, 2).toByteArray();
+    // numKFactors, then the first kFactor, follow magic, version, lgKlo and lgKhi
+    checkRejected(bytes, 16, 0);
+    checkRejected(bytes, 16, -1);
+    checkRejected(bytes, 16, Integer.MAX_VALUE);
+    checkRejected(bytes, 20, -5);
+    checkRejected(bytes, 20, Integer.MAX_VALUE);
+    checkRejected(bytes, 20, 2); // duplicates the second kFactor
+    checkRejected(bytes, 8, -1_000_000); // lgKlo
+  }
+
+  private static void checkRejected(final byte[] bytes, final int offset, final int value) {
+    final byte[] corrupt = bytes.clone();
+    ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+    try {
+      CollisionThresholdTable.heapify(corrupt);
+    } catch (final IllegalArgumentException e) {
+      return;
+    }
+    throw new AssertionError("Accepted " + value + " at offset " + offset);
+  }
+
+}
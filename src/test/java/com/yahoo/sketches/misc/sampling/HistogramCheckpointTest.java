@@ -0,0 +1,139 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class HistogramCheckpointTest {
+  // magic and version, then the experiment name length
+  private static final int NAME_LENGTH_OFFSET = 8;
+
+  private Path dir;
+  private Path file;
+
+  @BeforeMethod
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("checkpoint");
+    file = dir.resolve("cp");
+  }
+
+  @AfterMethod
+  public void deleteDir() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  @Test
+  public void checkDenseRoundTrip() throws IOException {
+    checkRoundTrip(new SamplingConfig(1000, 4, 16, 64));
+  }
+
+  @Test
+  public void checkSparseRoundTrip() throws IOException {
+    // more pairs than fit in one read buffer
+    checkRoundTrip(new SamplingConfig(1000, 4, 1 << 16, 1L << 40));
+  }
+
+  @Test
+  public void checkRewriteReplaces() throws IOException {
+    final SamplingConfig sc = new SamplingConfig(100, 2, 8, 8);
+    try (HistogramCheckpoint cp = new HistogramCheckpoint("UNION", sc, 1, 0, 1, 0, 100, 10,
+        SampleHistogram.newInstance(sc.getCumulativeRange()))) {
+      cp.histogram.increment(3);
+      cp.write(file);
+      cp.itersDone = 100;
+      cp.histogram.increment(5);
+      cp.write(file);
+    }
+    try (HistogramCheckpoint cp = HistogramCheckpoint.read(file)) {
+      assertTrue(cp.isComplete());
+      assertEquals(cp.histogram.getCount(3), 1);
+      assertEquals(cp.histogram.getCount(5), 1);
+    }
+    assertFalse(Files.exists(dir.resolve("cp.tmp")));
+  }
+
+  @Test
+  public void checkCorruptNameLength() throws IOException {
+    final byte[] bytes = writeSmall();
+    for (short len : new short[] {0, -1, Short.MIN_VALUE, 2000}) {
+      ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putShort(NAME_LENGTH_OFFSET, len);
+      Files.write(file, bytes);
+      checkRejected("name length " + len);
+    }
+  }
+
+  @Test
+  public void checkNotACheckpoint() throws IOException {
+    final byte[] bytes = writeSmall();
+    bytes[0] ^= 1;
+    Files.write(file, bytes);
+    checkRejected("bad magic");
+  }
+
+  @Test
+  public void checkTruncated() throws IOException {
+    final byte[] bytes = writeSmall();
+    for (int len : new int[] {0, 5, NAME_LENGTH_OFFSET + 4, bytes.length - 1}) {
+      Files.write(file, Arrays.copyOf(bytes, len));
+      checkRejected("truncated to " + len);
+    }
+  }
+
+  private void checkRoundTrip(final SamplingConfig sc) throws IOException {
+    final long range = sc.getCumulativeRange();
+    try (HistogramCheckpoint cp = new HistogramCheckpoint("SKETCH", sc, -42, 2, 5, 400, 600, 123,
+        SampleHistogram.newInstance(range))) {
+      for (long i = 0; i < 10_000; ++i) {
+        cp.histogram.add((i * 7919) % range, 1 + (i % 3));
+      }
+      cp.write(file);
+
+      try (HistogramCheckpoint copy = HistogramCheckpoint.read(file)) {
+        assertTrue(copy.isSameRun(cp));
+        assertEquals(copy.toString(), cp.toString());
+        assertEquals(copy.seed, -42);
+        assertEquals(copy.shardIdx, 2);
+        assertEquals(copy.numShards, 5);
+        assertEquals(copy.startIter, 400);
+        assertEquals(copy.endIter, 600);
+        assertEquals(copy.itersDone, 123);
+        assertEquals(copy.histogram.getNumNonZero(), cp.histogram.getNumNonZero());
+        cp.histogram.forEachNonZero((value, count) ->
+            assertEquals(copy.histogram.getCount(value), count, "value " + value));
+      }
+    }
+  }
+
+  private byte[] writeSmall() throws IOException {
+    final SamplingConfig sc = new SamplingConfig(10, 1, 4, 4);
+    try (HistogramCheckpoint cp = new HistogramCheckpoint("SKETCH", sc, 0, 0, 1, 0, 10, 10,
+        SampleHistogram.newInstance(sc.getCumulativeRange()))) {
+      cp.histogram.increment(1);
+      cp.histogram.increment(2);
+      cp.write(file);
+    }
+    return Files.readAllBytes(file);
+  }
+
+  private void checkRejected(final String what) {
+    try (HistogramCheckpoint cp = HistogramCheckpoint.read(file)) {
+      fail("read a checkpoint with " + what + ": " + cp);
+    } catch (final IOException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class SampleHistogramTest {
+
+  @Test
+  public void checkNewInstanceForm() {
+    try (SampleHistogram dense = SampleHistogram.newInstance(1000);
+         SampleHistogram sparse = SampleHistogram.newInstance(1000, 1000);
+         SampleHistogram huge = SampleHistogram.newInstance(1L << 40)) {
+      assertTrue(dense instanceof DirectSampleHistogram);
+      assertTrue(sparse instanceof SparseSampleHistogram);
+      assertTrue(huge instanceof SparseSampleHistogram);
+    }
+  }
+
+  @Test
+  public void checkDenseAndSparseAgree() {
+    final long range = 50_000;
+    final Random rand = new Random(7);
+    final Map<Long, Long> expected = new HashMap<>();
+    try (SampleHistogram dense = new DirectSampleHistogram(range);
+         SampleHistogram sparse = new SparseSampleHistogram(range)) {
+      // enough distinct values to make the sparse table grow
+      for (int i = 0; i < 200_000; ++i) {
+        final long value = (long) (range * rand.nextDouble() * rand.nextDouble());
+        final long count = (i % 3 == 0) ? 1 + rand.nextInt(5) : 1;
+        if (count == 1) {
+          dense.increment(value);
+          sparse.increment(value);
+        } else {
+          dense.add(value, count);
+          sparse.add(value, count);
+        }
+        expected.merge(value, count, Long::sum);
+      }
+      checkCounts(dense, expected);
+      checkCounts(sparse, expected);
+      assertEquals(sparse.getNumNonZero(), dense.getNumNonZero());
+    }
+  }
+
+  @Test
+  public void checkMergeAcrossForms() {
+    final long range = 10_000;
+    final Map<Long, Long> expected = new HashMap<>();
+    try (SampleHistogram dense1 = new DirectSampleHistogram(range);
+         SampleHistogram dense2 = new DirectSampleHistogram(range);
+         SampleHistogram sparse1 = new SparseSampleHistogram(range);
+         SampleHistogram sparse2 = new SparseSampleHistogram(range)) {
+      for (long v = 0; v < range; v += 3) {
+        dense1.add(v, v + 1);
+        sparse1.add(v, v + 1);
+        expected.merge(v, v + 1, Long::sum);
+      }
+      for (long v = 0; v < range; v += 5) {
+        dense2.increment(v);
+        sparse2.increment(v);
+        expected.merge(v, 1L, Long::sum);
+      }
+      dense1.merge(dense2);   // dense into dense
+      sparse1.merge(dense2);  // dense into sparse
+      checkCounts(dense1, expected);
+      checkCounts(sparse1, expected);
+
+      sparse2.merge(dense1);  // sparse totals plus another copy of the second histogram
+      dense2.merge(sparse1);  // sparse into dense
+      checkSameCounts(sparse2, dense2);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkMergeRangeMismatch() {
+    try (SampleHistogram a = new SparseSampleHistogram(10);
+         SampleHistogram b = new SparseSampleHistogram(11)) {
+      a.merge(b);
+    }
+  }
+
+  @Test
+  public void checkOutOfRange() {
+    try (SampleHistogram dense = new DirectSampleHistogram(10);
+         SampleHistogram sparse = new SparseSampleHistogram(10)) {
+      for (SampleHistogram h : new SampleHistogram[] {dense, sparse}) {
+        for (long bad : new long[] {-1, 10}) {
+          try {
+            h.increment(bad);
+            fail("accepted " + bad);
+          } catch (final IllegalArgumentException e) {
+            // expected
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void checkFullSparseTable() {
+    final int lgCapacity = 4;
+    final SparseSampleHistogram sparse = new SparseSampleHistogram(1000, lgCapacity);
+    final int maxValues = (1 << lgCapacity) - 1; // one slot always stays empty
+    for (long v = 0; v < maxValues; ++v) { sparse.increment(v); }
+    try {
+      sparse.increment(500);
+      fail("a full table accepted a new value");
+    } catch (final IllegalStateException e) {
+      // expected
+    }
+    // the rejected value was not inserted, existing values still count, and absent values
+    // are still found to be absent
+    assertEquals(sparse.getNumNonZero(), maxValues);
+    assertEquals(sparse.getCount(500), 0);
+    assertEquals(sparse.getCount(999), 0);
+    sparse.increment(3);
+    assertEquals(sparse.getCount(3), 2);
+  }
+
+  private static void checkCounts(final SampleHistogram hist, final Map<Long, Long> expected) {
+    assertEquals(hist.getNumNonZero(), expected.size());
+    for (Map.Entry<Long, Long> e : expected.entrySet()) {
+      assertEquals(hist.getCount(e.getKey()), (long) e.getValue(), "value " + e.getKey());
+    }
+    final long[] seen = new long[1];
+    hist.forEachNonZero((value, count) -> {
+      assertEquals(count, (long) expected.get(value), "value " + value);
+      ++seen[0];
+    });
+    assertEquals(seen[0], expected.size());
+  }
+
+  private static void checkSameCounts(final SampleHistogram a, final SampleHistogram b) {
+    assertEquals(a.getNumNonZero(), b.getNumNonZero());
+    a.forEachNonZero((value, count) -> assertEquals(b.getCount(value), count, "value " + value));
+  }
+
+}
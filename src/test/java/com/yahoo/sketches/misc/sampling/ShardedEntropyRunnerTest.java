@@ -0,0 +1,77 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.yahoo.sketches.misc.sampling.ShardedEntropyRunner.Experiment;
+
+/**
+ * Seeded runs reach into a private static of sketches-core, so these fail loudly if a
+ * sketches-core upgrade moves or changes it.
+ */
+public class ShardedEntropyRunnerTest {
+
+  @Test
+  public void checkPinnedSketchesCoreVersion() {
+    assertEquals(ShardedEntropyRunner.getSketchesCoreVersion(),
+        ShardedEntropyRunner.SEEDED_SKETCHES_CORE_VERSION,
+        "sketches-core changed: check that SamplingUtil.rand still drives every reservoir"
+        + " sketch and union, then update SEEDED_SKETCHES_CORE_VERSION");
+    assertNotNull(ShardedEntropyRunner.getSamplingRandom());
+  }
+
+  @Test
+  public void checkSeededRunsAreIdentical() {
+    final Experiment exp = Experiment.TREE_UNION;
+    final SamplingConfig sc = exp.newConfig(500);
+    try (SampleHistogram first = ReservoirEntropy.runSeededExperiment(sc, 9001, exp.runner);
+         SampleHistogram second = ReservoirEntropy.runSeededExperiment(sc, 9001, exp.runner)) {
+      assertSameCounts(first, second);
+    }
+  }
+
+  @Test
+  public void checkMergedShardsMatchUnshardedRun() throws IOException {
+    final Experiment exp = Experiment.UNION;
+    final SamplingConfig sc = exp.newConfig(300);
+    final long seed = 42;
+    final int numShards = 3;
+    final Path dir = Files.createTempDirectory("shards");
+    final List<Path> shardFiles = new ArrayList<>();
+    try {
+      for (int s = 0; s < numShards; ++s) {
+        final Path p = dir.resolve("shard" + s);
+        ShardedEntropyRunner.runShard(exp, sc, s, numShards, seed, p, Long.MAX_VALUE);
+        shardFiles.add(p);
+      }
+      final Path merged = dir.resolve("merged");
+      ShardedEntropyRunner.merge(shardFiles, merged, false);
+
+      try (HistogramCheckpoint cp = HistogramCheckpoint.read(merged);
+           SampleHistogram unsharded = ReservoirEntropy.runSeededExperiment(sc, seed,
+               exp.runner)) {
+        assertEquals(cp.itersDone, sc.getNumIters());
+        assertSameCounts(cp.histogram, unsharded);
+      }
+    } finally {
+      for (Path p : shardFiles) { Files.deleteIfExists(p); }
+      Files.deleteIfExists(dir.resolve("merged"));
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  private static void assertSameCounts(final SampleHistogram a, final SampleHistogram b) {
+    assertEquals(a.getRange(), b.getRange());
+    assertEquals(a.getNumNonZero(), b.getNumNonZero());
+    a.forEachNonZero((value, count) -> assertEquals(b.getCount(value), count, "value " + value));
+  }
+
+}
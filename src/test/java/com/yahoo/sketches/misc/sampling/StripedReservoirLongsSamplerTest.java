@@ -0,0 +1,92 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.testng.annotations.Test;
+
+import com.yahoo.memory.WritableMemory;
+import com.yahoo.sketches.sampling.ReservoirLongsSketch;
+
+public class StripedReservoirLongsSamplerTest {
+
+  @Test
+  public void checkImageMatchesReservoirLongsSketch() {
+    // With n <= k neither side draws random numbers, so the two images must be identical
+    final int k = 32;
+    for (int n = 1; n <= k; n += 7) {
+      final ReservoirLongsSketch rls = ReservoirLongsSketch.newInstance(k);
+      final StripedReservoirLongsSampler.Shard shard =
+          new StripedReservoirLongsSampler.Shard(k, new SplittableRandom(1));
+      for (long item = 0; item < n; ++item) {
+        rls.update(item);
+        shard.update(item);
+      }
+      final WritableMemory mem = StripedReservoirLongsSampler.toSketchImage(k,
+          shard.copySamples());
+      final byte[] image = new byte[(int) mem.getCapacity()];
+      mem.getByteArray(0, image, 0, image.length);
+      assertEquals(image, rls.toByteArray(), "n = " + n);
+    }
+  }
+
+  @Test
+  public void checkSingleThread() {
+    final int k = 64;
+    final StripedReservoirLongsSampler sampler = new StripedReservoirLongsSampler(k);
+    assertEquals(sampler.getResult().getN(), 0);
+    for (long item = 0; item < 10; ++item) { sampler.update(item); }
+    final long[] exact = sampler.getResult().getSamples();
+    Arrays.sort(exact);
+    assertEquals(exact, new long[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+    for (long item = 10; item < 10_000; ++item) { sampler.update(item); }
+    final ReservoirLongsSketch result = sampler.getResult();
+    assertEquals(result.getN(), 10_000);
+    assertEquals(result.getNumSamples(), k);
+    checkDistinctInRange(result.getSamples(), 10_000);
+  }
+
+  @Test
+  public void checkManyThreads() throws InterruptedException {
+    final int k = 128;
+    final int numThreads = 4;
+    final long perThread = 100_000;
+    final StripedReservoirLongsSampler sampler = new StripedReservoirLongsSampler(k);
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final long start = t * perThread;
+      threads[t] = new Thread(() -> {
+        for (long item = start; item < (start + perThread); ++item) { sampler.update(item); }
+      });
+      threads[t].start();
+    }
+    // results taken while the threads update must still be consistent
+    while (sampler.getN() < (numThreads * perThread)) {
+      final ReservoirLongsSketch partial = sampler.getResult();
+      checkDistinctInRange(partial.getSamples(), numThreads * perThread);
+    }
+    for (Thread thread : threads) { thread.join(); }
+
+    assertEquals(sampler.getNumShards(), numThreads);
+    final ReservoirLongsSketch result = sampler.getResult();
+    assertEquals(result.getN(), numThreads * perThread);
+    assertEquals(result.getNumSamples(), k);
+    checkDistinctInRange(result.getSamples(), numThreads * perThread);
+  }
+
+  private static void checkDistinctInRange(final long[] samples, final long range) {
+    if (samples == null) { return; }
+    final Set<Long> seen = new HashSet<>();
+    for (long s : samples) {
+      assertTrue((s >= 0) && (s < range), "sample out of range: " + s);
+      assertTrue(seen.add(s), "duplicate sample: " + s);
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.yahoo.sketches.misc.sampling;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class UniformityStatsTest {
+  private static final int RANGE = 1000;
+  private static final int SAMPLES_PER_ITER = 50;
+  private static final int NUM_ITERS = 20_000;
+
+  @Test
+  public void checkUniformPasses() {
+    try (SampleHistogram hist = sampleIterations(new Random(1), NUM_ITERS, 0.0)) {
+      final UniformityStats stats = new UniformityStats(hist, NUM_ITERS);
+      // the chi-square statistic is close to its degrees of freedom
+      assertEquals(stats.getChiSquare(), RANGE - 1, 5 * Math.sqrt(2 * (RANGE - 1)));
+      assertTrue(stats.getChiSquarePValue() > 1e-3, stats.getStatsString());
+      assertTrue(stats.getKsPValue() > 1e-3, stats.getStatsString());
+      assertTrue(stats.getMaxAbsZPValue() > 1e-3, stats.getStatsString());
+      assertEquals(stats.getNumTests(), 3);
+    }
+  }
+
+  @Test
+  public void checkSkewedFails() {
+    // the lower half of the range is 10% more likely to be drawn
+    try (SampleHistogram hist = sampleIterations(new Random(1), NUM_ITERS, 0.1)) {
+      final UniformityStats stats = new UniformityStats(hist, NUM_ITERS);
+      assertTrue(stats.getChiSquarePValue() < 1e-9, stats.getStatsString());
+      assertTrue(stats.getKsPValue() < 1e-9, stats.getStatsString());
+      assertTrue(stats.getMinPValue() < 1e-9);
+    }
+  }
+
+  @Test
+  public void checkOneValueOverSampled() {
+    try (SampleHistogram hist = sampleIterations(new Random(2), NUM_ITERS, 0.0)) {
+      hist.add(RANGE / 2, NUM_ITERS / 10);
+      final UniformityStats stats = new UniformityStats(hist, NUM_ITERS);
+      assertTrue(stats.getMaxAbsZ() > 10, stats.getStatsString());
+      assertTrue(stats.getMaxAbsZPValue() < 1e-9, stats.getStatsString());
+    }
+  }
+
+  @Test
+  public void checkExactlyUniform() {
+    try (SampleHistogram hist = SampleHistogram.newInstance(RANGE)) {
+      for (long v = 0; v < RANGE; ++v) { hist.add(v, 7); }
+      final UniformityStats stats = new UniformityStats(hist, 7L * RANGE / SAMPLES_PER_ITER);
+      assertEquals(stats.getChiSquare(), 0.0, 1e-9);
+      assertEquals(stats.getChiSquarePValue(), 1.0, 1e-9);
+      assertEquals(stats.getKsDistance(), 0.0, 1e-12);
+      assertEquals(stats.getMaxAbsZ(), 0.0, 1e-12);
+    }
+  }
+
+  @Test
+  public void checkIncrementalMergeMatchesWhole() {
+    final Random rand = new Random(3);
+    try (SampleHistogram running = sampleIterations(rand, 1000, 0.0);
+         SampleHistogram whole = SampleHistogram.newInstance(RANGE)) {
+      whole.merge(running);
+      final UniformityStats stats = new UniformityStats(running, 1000);
+      for (int block = 0; block < 5; ++block) {
+        try (SampleHistogram next = sampleIterations(rand, 1000, 0.0)) {
+          stats.merge(next, 1000);
+          whole.merge(next);
+        }
+      }
+      final UniformityStats fresh = new UniformityStats(whole, 6000);
+      assertEquals(stats.getNumIters(), 6000);
+      assertEquals(stats.getChiSquare(), fresh.getChiSquare(), 1e-6 * fresh.getChiSquare());
+      assertEquals(stats.getKsDistance(), fresh.getKsDistance(), 1e-12);
+      assertEquals(stats.getMaxAbsZ(), fresh.getMaxAbsZ(), 1e-12);
+    }
+  }
+
+  @Test
+  public void checkSpecialFunctions() {
+    for (double x : new double[] {0.1, 1.0, 5.0, 30.0}) {
+      assertEquals(UniformityStats.regularizedGammaQ(1.0, x), Math.exp(-x), 1e-12);
+    }
+    // chi-square with 2 df at its median, 2 ln 2
+    assertEquals(UniformityStats.regularizedGammaQ(1.0, Math.log(2)), 0.5, 1e-12);
+    assertEquals(UniformityStats.logGamma(5.0), Math.log(24.0), 1e-12);
+    assertEquals(UniformityStats.logGamma(0.5), 0.5 * Math.log(Math.PI), 1e-12);
+    assertEquals(UniformityStats.erfc(0.0), 1.0, 1e-7);
+    assertEquals(UniformityStats.erfc(1.0), 0.157299207, 1e-7);
+    assertEquals(UniformityStats.erfc(-1.0), 1.842700793, 1e-7);
+    assertEquals(UniformityStats.normalQuantileUpper(0.025), 1.959964, 1e-5);
+    assertEquals(UniformityStats.kolmogorovQ(0.1), 1.0, 0.0);
+    assertEquals(UniformityStats.kolmogorovQ(1.358), 0.05, 1e-3);
+    assertTrue(UniformityStats.kolmogorovQ(5.0) < 1e-20);
+  }
+
+  /**
+   * Draws numIters iterations of SAMPLES_PER_ITER distinct values from [0, RANGE). With a
+   * positive skew, values in the lower half of the range are that much more likely.
+   */
+  private static SampleHistogram sampleIterations(final Random rand, final int numIters,
+                                                  final double skew) {
+    final SampleHistogram hist = SampleHistogram.newInstance(RANGE);
+    final boolean[] taken = new boolean[RANGE];
+    final int[] drawn = new int[SAMPLES_PER_ITER];
+    for (int i = 0; i < numIters; ++i) {
+      int numDrawn = 0;
+      while (numDrawn < SAMPLES_PER_ITER) {
+        final int v = rand.nextInt(RANGE);
+        if (taken[v]) { continue; }
+        if ((v >= (RANGE / 2)) && (rand.nextDouble() * (1.0 + skew) > 1.0)) { continue; }
+        taken[v] = true;
+        drawn[numDrawn++] = v;
+      }
+      for (int v : drawn) {
+        hist.increment(v);
+        taken[v] = false;
+      }
+    }
+    return hist;
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018, Yahoo! Inc. Licensed under the terms of the
+ * Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package com.yahoo.sketches.quantiles;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the actual rank error of the QuantileSketch and prints it next to the theoretical
+ * epsilon of Space.spaceTableGuide(), in the same table format.
+ * This accesses package private methods in quantiles.Util so it must be in the same package.
+ *
+ * <p>Each trial draws n random doubles for every n of the table and streams them into a
+ * DoublesSketch of every k, in random, sorted and reverse sorted order. The true rank of each of
+ * NUM_PROBES values spread over the stream is known exactly from the sorted copy, and the trial
+ * records the largest difference between it and the sketch's CDF over all the probes. Over all
+ * trials each cell reports either the largest such error or the 99th percentile of the per-trial
+ * maximum, which is the normalized rank error that epsilon bounds. Trials run in parallel.
+ */
+public final class RankError {
+  private static final String LS = System.getProperty("line.separator");
+  private static final int NUM_PROBES = 1000;
+  private static final long SEED = 0x5DEECE66DL;
+
+  RankError() {}
+
+  /** The orders in which the values of a trial are streamed into the sketches */
+  enum Order { RANDOM, SORTED, REVERSED }
+
+  /**
+   * Returns pretty print strings of tables of measured rank error over a range of <i>n</i> and
+   * <i>k</i>, two for each Order: the 99th percentile over trials of the largest rank error of a
+   * trial, and the largest rank error of any trial.
+   * @param lgKlo the starting value of k expressed as log_base2(k)
+   * @param lgKhi the ending value of k expressed as log_base2(k)
+   * @param lgNlo the starting value of N expressed as log_base2(N)
+   * @param lgNhi the ending value of N expressed as log_base2(N)
+   * @param lgNstep the step between rows in log_base2(N)
+   * @param numTrials the number of trials of every cell
+   * @param slo if positive, a last column gives the smallest k whose 99th percentile error is
+   * at most this fraction
+   * @return pretty print strings of the tables
+   */
+  public static String rankErrorTables(final int lgKlo, final int lgKhi, final int lgNlo,
+                                       final int lgNhi, final int lgNstep, final int numTrials,
+                                       final double slo) {
+    final int[] ks = IntStream.rangeClosed(lgKlo, lgKhi).map(p -> 1 << p).toArray();
+    final int[] ns = IntStream.iterate(lgNlo, p -> p + lgNstep).limit(((lgNhi - lgNlo) / lgNstep)
+        + 1).map(p -> 1 << p).toArray();
+
+    // errors[trial][order][row][col]
+    final List<double[][][]> errors = IntStream.range(0, numTrials).parallel()
+        .mapToObj(t -> runTrial(ks, ns, new SplittableRandom(SEED + t)))
+        .collect(Collectors.toList());
+
+    final StringBuilder sb = new StringBuilder();
+    for (Order order : Order.values()) {
+      final double[][] p99 = new double[ns.length][ks.length];
+      final double[][] max = new double[ns.length][ks.length];
+      final double[] cellTrials = new double[numTrials];
+      for (int row = 0; row < ns.length; row++) {
+        for (int col = 0; col < ks.length; col++) {
+          for (int t = 0; t < numTrials; t++) {
+            cellTrials[t] = errors.get(t)[order.ordinal()][row][col];
+          }
+          Arrays.sort(cellTrials);
+          p99[row][col] = cellTrials[(int) Math.ceil(0.99 * numTrials) - 1];
+          max[row][col] = cellTrials[numTrials - 1];
+        }
+      }
+      sb.append(formatTable("99th Percentile Rank Error, " + order + " order, " + numTrials
+          + " trials:", ks, ns, p99, slo)).append(LS);
+      sb.append(formatTable("Maximum Rank Error, " + order + " order, " + numTrials
+          + " trials:", ks, ns, max, 0)).append(LS);
+    }
+    return sb.toString();
+  }
+
+  // Returns the largest rank error over the probes, for every order, n and k
+  private static double[][][] runTrial(final int[] ks, final int[] ns,
+                                       final SplittableRandom rand) {
+    final double[][][] errors = new double[Order.values().length][ns.length][ks.length];
+    for (int row = 0; row < ns.length; row++) {
+      final int n = ns[row];
+      final double[] values = new double[n];
+      for (int i = 0; i < n; i++) { values[i] = rand.nextDouble(); }
+      final double[] sorted = values.clone();
+      Arrays.sort(sorted);
+
+      // the values are distinct with overwhelming probability, so sorted[i] has true rank i / n
+      final int numProbes = Math.min(NUM_PROBES, n);
+      final int[] probeIdx = new int[numProbes];
+      final double[] probes = new double[numProbes];
+      for (int j = 0; j < numProbes; j++) {
+        probeIdx[j] = (int) (((long) j * n) / numProbes);
+        probes[j] = sorted[probeIdx[j]];
+      }
+
+      for (int col = 0; col < ks.length; col++) {
+        for (Order order : Order.values()) {
+          final UpdateDoublesSketch sketch = DoublesSketch.builder().setK(ks[col]).build();
+          switch (order) {
+            case RANDOM:
+              for (int i = 0; i < n; i++) { sketch.update(values[i]); }
+              break;
+            case SORTED:
+              for (int i = 0; i < n; i++) { sketch.update(sorted[i]); }
+              break;
+            default:
+              for (int i = n - 1; i >= 0; i--) { sketch.update(sorted[i]); }
+              break;
+          }
+          final double[] cdf = sketch.getCDF(probes);
+          double maxErr = 0;
+          for (int j = 0; j < numProbes; j++) {
+            maxErr = Math.max(maxErr, Math.abs(cdf[j] - ((double) probeIdx[j] / n)));
+          }
+          errors[order.ordinal()][row][col] = maxErr;
+        }
+      }
+    }
+    return errors;
+  }
+
+  private static String formatTable(final String title, final int[] ks, final int[] ns,
+                                    final double[][] cells, final double slo) {
+    final int tblColWidth = 10;
+    final int leftColWidth = 16;
+    final String leftColStrFmt = "%" + leftColWidth + "s";
+    final String dFmt = "%," + tblColWidth + "d";
+    final String fFmt = "%" + (tblColWidth - 1) + ".3f%%";
+    final StringBuilder sb = new StringBuilder();
+    sb.append(title).append(LS);
+    sb.append(String.format(leftColStrFmt, "K => |"));
+    for (int k : ks) { sb.append(String.format(dFmt, k)); }
+    if (slo > 0) { sb.append(String.format("%" + tblColWidth + "s", "K @ SLO")); }
+    sb.append(LS);
+    sb.append(String.format(leftColStrFmt, "~ Error => |"));
+    for (int k : ks) { sb.append(String.format(fFmt, 100 * getEpsilon(k))); }
+    if (slo > 0) { sb.append(String.format(fFmt, 100 * slo)); }
+    sb.append(LS);
+    sb.append(String.format(leftColStrFmt, "N |"));
+    sb.append(" Measured Rank Error ->").append(LS);
+    final int numDashes = leftColWidth + (tblColWidth * (ks.length + ((slo > 0) ? 1 : 0)));
+    final StringBuilder sb2 = new StringBuilder();
+    for (int i = 0; i < numDashes; i++) { sb2.append("-"); }
+    sb.append(sb2.toString()).append(LS);
+    final String leftColNumFmt = "%," + (leftColWidth - 2) + "d |";
+    for (int row = 0; row < ns.length; row++) {
+      sb.append(String.format(leftColNumFmt, ns[row])); //first column
+      int sloK = 0;
+      for (int col = 0; col < ks.length; col++) { //table columns
+        sb.append(String.format(fFmt, 100 * cells[row][col]));
+        if ((sloK == 0) && (cells[row][col] <= slo)) { sloK = ks[col]; }
+      }
+      if (slo > 0) {
+        sb.append((sloK > 0) ? String.format(dFmt, sloK)
+            : String.format("%" + tblColWidth + "s", "-"));
+      }
+      sb.append(LS);
+    }
+    return sb.toString();
+  }
+
+  private static double getEpsilon(final int k) {
+    return Util.EpsilonFromK.getAdjustedEpsilon(k);
+  }
+
+  /**
+   * Pretty prints the rank error tables.
+   * @param args [numTrials] [lgKlo] [lgKhi] [lgNlo] [lgNhi] [SLO as a fraction], by default
+   * 100 trials of k = 32 to 4096 and n = 2^10 to 2^20, every 2 powers of 2, with an SLO of 1%
+   */
+  public static void main(final String[] args) {
+    final int numTrials = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+    final int lgKlo = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    final int lgKhi = (args.length > 2) ? Integer.parseInt(args[2]) : 12;
+    final int lgNlo = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+    final int lgNhi = (args.length > 4) ? Integer.parseInt(args[4]) : 20;
+    final double slo = (args.length > 5) ? Double.parseDouble(args[5]) : 0.01;
+    println(rankErrorTables(lgKlo, lgKhi, lgNlo, lgNhi, 2, numTrials, slo));
+  }
+
+  static void println(final String s) { System.out.println(s); }
+}
@@ -5,8 +5,15 @@
 
 package com.yahoo.sketches.quantiles;
 
+import static com.yahoo.sketches.quantiles.Util.computeBitPattern;
 import static com.yahoo.sketches.quantiles.Util.computeCombinedBufferItemCapacity;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.yahoo.memory.WritableDirectHandle;
+import com.yahoo.memory.WritableMemory;
+
 /**
  * Utility functions for computing space consumed by the QuantileSketch.
  * This accesses package private methods in quantiles.Util so it must be in the same package.
@@ -16,6 +23,7 @@ import static com.yahoo.sketches.quantiles.Util.computeCombinedBufferItemCapacit
  */
 public final class Space {
   private static final String LS = System.getProperty("line.separator");
+  private static final long MAX_VERIFY_N = 1L << 16;
 
   Space() {}
 
@@ -71,6 +79,133 @@ public final class Space {
     return sb.toString();
   }
 
+  /**
+   * Returns a pretty print string of a table of the measured sizes of real DoublesSketches, next
+   * to the upper bound of spaceTableGuide(), for every k and n of that table. Each row shows:
+   * <ul>
+   * <li>Bound: the upper bound of spaceTableGuide().</li>
+   * <li>Upd Ser, Cpt Ser: the serialized size of the updatable and compact forms.</li>
+   * <li>Upd Heap, Cpt Heap: the bytes of the combined buffer retained by an on-heap updatable
+   * and compact sketch, not counting object headers.</li>
+   * <li>Upd Direct: the bytes of WritableMemory an updatable direct sketch requires.</li>
+   * </ul>
+   * The direct updatable and compact sketches must serialize to the same bytes as the heap ones.
+   *
+   * <p>The sketches are filled by fastFill(), which writes the state reached after n updates
+   * directly, so n up to 2^32 is reached in time proportional to the retained items. Cells with
+   * n below MAX_VERIFY_N are also built with n updates and checked against the fast fill.
+   * Cells are computed in parallel.
+   *
+   * @param lgKlo the starting value of k expressed as log_base2(k)
+   * @param lgKhi the ending value of k expressed as log_base2(k)
+   * @param maxLgN the ending value of N expressed as log_base2(N)
+   * @return a pretty print string of the measured table
+   */
+  public static String measuredSpaceTable(final int lgKlo, final int lgKhi, final int maxLgN) {
+    final int numN = maxLgN + 1;
+    final int numCells = ((lgKhi - lgKlo) + 1) * numN;
+    final long[][] cells = IntStream.range(0, numCells).parallel()
+        .mapToObj(cell -> measure(1 << (lgKlo + (cell / numN)), (1L << (cell % numN)) - 1L))
+        .toArray(long[][]::new);
+
+    final String hdrFmt = "%8s%16s%14s%14s%14s%14s%14s%14s";
+    final String rowFmt = "%,8d%,16d%,14d%,14d%,14d%,14d%,14d%,14d";
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Measured Quantiles DoublesSketch Sizes in Bytes:").append(LS);
+    sb.append(String.format(hdrFmt, "K", "N", "Bound", "Upd Ser", "Upd Heap", "Upd Direct",
+        "Cpt Ser", "Cpt Heap")).append(LS);
+    for (int cell = 0; cell < numCells; cell++) {
+      final long[] c = cells[cell];
+      sb.append(String.format(rowFmt, c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]))
+          .append(LS);
+    }
+    return sb.toString();
+  }
+
+  // Returns k, n, bound, updatable ser, heap and direct bytes, then compact ser and heap bytes
+  private static long[] measure(final int k, final long n) {
+    final UpdateDoublesSketch heap = fastFill(DoublesSketch.builder().setK(k).build(), n);
+    final CompactDoublesSketch heapCompact = heap.compact();
+    final byte[] updBytes = heap.toByteArray(false);
+    final byte[] cptBytes = heapCompact.toByteArray();
+    if (n < MAX_VERIFY_N) {
+      verifyFastFill(heap, n);
+    }
+
+    final int updDirectBytes = DoublesSketch.getUpdatableStorageBytes(k, n);
+    try (WritableDirectHandle updHandle = WritableMemory.allocateDirect(updDirectBytes);
+         WritableDirectHandle cptHandle = WritableMemory.allocateDirect(
+             DoublesSketch.getCompactStorageBytes(k, n))) {
+      final UpdateDoublesSketch direct = fastFill(
+          DoublesSketch.builder().setK(k).build(updHandle.get()), n);
+      final CompactDoublesSketch directCompact = direct.compact(cptHandle.get());
+      if (!sameImage(direct.toByteArray(false), updBytes, n)
+          || !sameImage(directCompact.toByteArray(), cptBytes, n)) {
+        throw new IllegalStateException("Direct and heap sketches differ at k=" + k + ", n=" + n);
+      }
+    }
+
+    return new long[] {k, n, elemCapacity(k, n), updBytes.length,
+        (long) heap.getCombinedBuffer().length * Double.BYTES, updDirectBytes, cptBytes.length,
+        (long) heapCompact.getCombinedBuffer().length * Double.BYTES};
+  }
+
+  // An empty direct sketch keeps the two preamble longs of its memory in the preLongs byte,
+  // where an empty heap sketch writes one, so only the sizes of empty images are compared.
+  private static boolean sameImage(final byte[] a, final byte[] b, final long n) {
+    return (n == 0) ? (a.length == b.length) : Arrays.equals(a, b);
+  }
+
+  /**
+   * Puts an empty sketch into the state it would reach after n updates: a partly filled base
+   * buffer and a full, sorted level of k items for every set bit of the bit pattern. The items
+   * are 0, 1, 2... by position in the combined buffer. A direct sketch must have memory for
+   * getUpdatableStorageBytes(k, n).
+   *
+   * @param sketch an empty updatable sketch
+   * @param n the number of updates to simulate
+   * @return the given sketch
+   */
+  static UpdateDoublesSketch fastFill(final UpdateDoublesSketch sketch, final long n) {
+    if (n == 0) { return sketch; }
+    final int k = sketch.getK();
+    final int baseBufferCount = (int) (n % (2L * k));
+    final long bitPattern = computeBitPattern(k, n);
+    final double[] buffer = new double[computeCombinedBufferItemCapacity(k, n)];
+    for (int i = 0; i < buffer.length; i++) { buffer[i] = i; }
+
+    // items are ascending by position, so the extremes are the first and last retained ones
+    double max = baseBufferCount - 1;
+    for (int lvl = 0; (bitPattern >>> lvl) != 0; lvl++) {
+      if (((bitPattern >>> lvl) & 1L) != 0) { max = buffer[((2 + lvl) * k) + (k - 1)]; }
+    }
+    final double min = (baseBufferCount > 0) ? 0.0 : buffer[(2 + Long.numberOfTrailingZeros(
+        bitPattern)) * k];
+
+    sketch.putN(n);
+    sketch.putBaseBufferCount(baseBufferCount);
+    sketch.putBitPattern(bitPattern);
+    sketch.putCombinedBuffer(buffer);
+    sketch.putMinValue(min);
+    sketch.putMaxValue(max);
+    return sketch;
+  }
+
+  // Compares the layout and sizes of a fast filled sketch with one built by n updates
+  private static void verifyFastFill(final UpdateDoublesSketch fast, final long n) {
+    final UpdateDoublesSketch slow = DoublesSketch.builder().setK(fast.getK()).build();
+    for (long i = 0; i < n; i++) { slow.update(i); }
+    if ((slow.getCombinedBuffer().length != fast.getCombinedBuffer().length)
+        || (slow.getBaseBufferCount() != fast.getBaseBufferCount())
+        || (slow.getBitPattern() != fast.getBitPattern())
+        || (slow.getRetainedItems() != fast.getRetainedItems())
+        || (slow.toByteArray(false).length != fast.toByteArray(false).length)
+        || (slow.compact().toByteArray().length != fast.compact().toByteArray().length)) {
+      throw new IllegalStateException("Fast fill differs from updates at k=" + fast.getK()
+          + ", n=" + n);
+    }
+  }
+
   //External calls
   private static int elemCapacity(final int k, final long n) {
     return (n == 0) ? 8
@@ -89,6 +224,7 @@ public final class Space {
    */
   public static void main(final String[] args) {
     println(com.yahoo.sketches.quantiles.Space.spaceTableGuide(4, 15, 32));
+    println(com.yahoo.sketches.quantiles.Space.measuredSpaceTable(4, 15, 32));
   }
 
   static void println(final String s) { System.out.println(s); }